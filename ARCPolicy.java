@@ -0,0 +1,165 @@
+/**
+ * ARCPolicy is the Adaptive Replacement Cache of Megiddo and Modha. The Cache is
+ * split between T1, the nodes accessed once recently, and T2, the nodes accessed
+ * at least twice. Ghost lists B1 and B2 remember the locations evicted from T1
+ * and T2, and a hit in a ghost list moves the target size of T1 towards the list
+ * which would have kept the node. The policy thereby adapts between recency and
+ * frequency, and a one time scan only passes through T1.
+ * 
+ * @author Sajia Zafreen
+ */
+public class ARCPolicy implements EvictionPolicy {
+    private static final int T1 = 0;
+    private static final int T2 = 1;
+    private static final int B1 = 2;
+    private static final int B2 = 3;
+
+    private CacheList t1 = new CacheList();
+    private CacheList t2 = new CacheList();
+    private CacheList b1 = new CacheList();
+    private CacheList b2 = new CacheList();
+    private LocationTable ghosts;
+    private int capacity;
+    private int target; // target size of T1
+    private int adaptedLocation = -1; // ghost hit already adapted in evict
+
+    /**
+     * Constructor of the ARCPolicy
+     * 
+     * @param size is the size of the Cache
+     */
+    public ARCPolicy(int size) {
+	this.capacity = size;
+	this.target = 0;
+	this.ghosts = new LocationTable(2 * size);
+    }
+
+    /**
+     * Moves the target size of T1 after a hit in a ghost list
+     * 
+     * @param ghost is the ghost entry hit
+     */
+    private void adapt(CacheEntry ghost) {
+	if (ghost.queue == B1) {
+	    target = Math.min(capacity, target + Math.max(b2.size() / b1.size(), 1));
+	} else {
+	    target = Math.max(0, target - Math.max(b1.size() / b2.size(), 1));
+	}
+	adaptedLocation = ghost.getLocation();
+    }
+
+    /**
+     * Forgets a ghost entry
+     * 
+     * @param ghost is the ghost to be removed
+     * @param list  is the ghost list of the entry
+     */
+    private void removeGhost(CacheEntry ghost, CacheList list) {
+	list.unlink(ghost);
+	ghosts.remove(ghost);
+    }
+
+    /**
+     * Evicts the last entry of T1 or T2 and remembers it in the ghost list
+     * 
+     * @param inB2 is true if the next node was found in B2
+     * @return the evicted entry
+     */
+    private CacheEntry replace(boolean inB2) {
+	CacheEntry victim;
+	CacheEntry ghost;
+	if (t1.size() > 0 && ((inB2 && t1.size() == target) || t1.size() > target) || t2.size() == 0) {
+	    victim = t1.removeLast();
+	    ghost = new CacheEntry(victim.getLocation());
+	    ghost.queue = B1;
+	    b1.linkFirst(ghost);
+	} else {
+	    victim = t2.removeLast();
+	    ghost = new CacheEntry(victim.getLocation());
+	    ghost.queue = B2;
+	    b2.linkFirst(ghost);
+	}
+	ghosts.put(ghost);
+	return victim;
+    }
+
+    @Override
+    public void hit(CacheEntry entry) {
+	if (entry.queue == T1) {
+	    t1.unlink(entry);
+	    entry.queue = T2;
+	    t2.linkFirst(entry);
+	} else {
+	    t2.moveToFront(entry);
+	}
+    }
+
+    @Override
+    public void add(CacheEntry entry) {
+	CacheEntry ghost = ghosts.get(entry.getLocation());
+	if (ghost != null) {
+	    if (adaptedLocation != entry.getLocation()) {
+		adapt(ghost);
+	    }
+	    removeGhost(ghost, ghost.queue == B1 ? b1 : b2);
+	    entry.queue = T2;
+	    t2.linkFirst(entry);
+	} else {
+	    entry.queue = T1;
+	    t1.linkFirst(entry);
+	    // keep the directory within twice the Cache size
+	    while (t1.size() + b1.size() > capacity && b1.size() > 0) {
+		removeGhost(b1.getLast(), b1);
+	    }
+	    while (t1.size() + t2.size() + b1.size() + b2.size() > 2 * capacity && b2.size() > 0) {
+		removeGhost(b2.getLast(), b2);
+	    }
+	}
+	adaptedLocation = -1;
+    }
+
+    @Override
+    public CacheEntry evict(int location) {
+	CacheEntry ghost = ghosts.get(location);
+	if (ghost != null) {
+	    adapt(ghost);
+	    return replace(ghost.queue == B2);
+	}
+	if (t1.size() + b1.size() >= capacity) {
+	    if (t1.size() < capacity) {
+		removeGhost(b1.getLast(), b1);
+		return replace(false);
+	    }
+	    return t1.removeLast(); // T1 holds the whole Cache, no ghost is kept
+	}
+	if (t1.size() + t2.size() + b1.size() + b2.size() >= 2 * capacity) {
+	    removeGhost(b2.getLast(), b2);
+	}
+	return replace(false);
+    }
+
+    @Override
+    public void remove(CacheEntry entry) {
+	if (entry.queue == T1) {
+	    t1.unlink(entry);
+	} else {
+	    t2.unlink(entry);
+	}
+    }
+
+    @Override
+    public void clear() {
+	t1.clear();
+	t2.clear();
+	b1.clear();
+	b2.clear();
+	ghosts.clear();
+	target = 0;
+	adaptedLocation = -1;
+    }
+
+    @Override
+    public String getName() {
+	return "ARC";
+    }
+}
@@ -2,6 +2,9 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Comparator;
 
 /**
  * BTree class creates a BTree consists of TreeNode which is made of TreeObjects
@@ -18,12 +21,23 @@ public class BTree {
     private TreeNode parent;
     private TreeNode firstChild;
     private TreeNode secondChild;// the node created after splitting
-    private RandomAccessFile randomFile;
+    private BTreeStorage storage; // the BTree file
     private int lastAccessed;
-    private final int METADATA_Offset = 12; // write from this offset
+    static final int METADATA_Offset = 12; // write from this offset
+    static final int DEGREE_MASK = 0x00FFFFFF; // the degree in the last int of the meta_data, the flags above it
+    static final int CANONICAL_FLAG = 1 << 24; // the keys are canonical DNA sequences
+    static final int WIDE_KEYS_FLAG = 1 << 25; // the keys are 128-bit, for DNA sequences longer than 31
+    private static final int FLUSH_BUFFER_SIZE = 1 << 20; // largest write of the Cache flush
+    private static final double SCAN_FRACTION = 0.25; // batch size, relative to the keys, from which a scan wins
+    private static final int FILL_SAMPLES = 64; // nodes read to estimate the number of keys
     private int treeNumNodes;
+    private int flags; // meta_data flags
+    private boolean wideKeys; // 128-bit keys
+    private NodeCodec codec; // encodes and decodes the nodes of this BTree
     private BTreeCache bTreeCache = null;
     private int cacheSize;
+    private long diskReads;
+    private long diskWrites;
     // keys = binary format in long
     // treeObject = keys+ frequency
 
@@ -36,19 +50,65 @@ public class BTree {
      * @throws IOException
      */
     public BTree(int degree, String fileName, int cacheSize) throws IOException {
-	this.degree = optimalDegree(degree);
+	this(degree, fileName, cacheSize, "lru");
+    }
+
+    /**
+     * Constructor for the BTree when the BTree is created
+     * 
+     * @param degree      is the Degree of the BTree
+     * @param fileName    is the fileName where the BTree will be written
+     * @param cacheSize   is the implemented Cache Size
+     * @param cachePolicy is the eviction policy of the Cache (lru, clock, 2q or
+     *                    arc)
+     * @throws IOException
+     */
+    public BTree(int degree, String fileName, int cacheSize, String cachePolicy) throws IOException {
+	this(degree, BTreeStorage.open(fileName, true, BTreeStorage.DEFAULT_STORAGE), cacheSize, cachePolicy);
+    }
+
+    /**
+     * Constructor for the BTree when the BTree is created on a storage backend
+     * 
+     * @param degree      is the Degree of the BTree
+     * @param storage     is the storage where the BTree will be written
+     * @param cacheSize   is the implemented Cache Size
+     * @param cachePolicy is the eviction policy of the Cache (lru, clock, 2q or
+     *                    arc)
+     */
+    public BTree(int degree, BTreeStorage storage, int cacheSize, String cachePolicy) {
+	this(degree, storage, cacheSize, cachePolicy, false);
+    }
+
+    /**
+     * Constructor for the BTree when the BTree is created on a storage backend,
+     * with 64-bit keys or with 128-bit keys for DNA sequences longer than 31. The
+     * key width is recorded in the meta_data.
+     * 
+     * @param degree      is the Degree of the BTree
+     * @param storage     is the storage where the BTree will be written
+     * @param cacheSize   is the implemented Cache Size
+     * @param cachePolicy is the eviction policy of the Cache (lru, clock, 2q or
+     *                    arc)
+     * @param wideKeys    is true for 128-bit keys
+     */
+    public BTree(int degree, BTreeStorage storage, int cacheSize, String cachePolicy, boolean wideKeys) {
+	this.wideKeys = wideKeys;
+	this.flags = wideKeys ? WIDE_KEYS_FLAG : 0;
+	this.degree = optimalDegree(degree, wideKeys);
 	this.lastAccessed = METADATA_Offset;
-	this.rootNode = new TreeNode(this.degree);
+	this.rootNode = new TreeNode(this.degree, wideKeys);
 	this.parent = null;
 	this.firstChild = null;
 	this.secondChild = null;
 	this.setTreeNumNodes(0);// counting the root node
-	this.randomFile = new RandomAccessFile(fileName, "rw");
+	this.storage = storage;
+	this.codec = new NodeCodec(this.degree, wideKeys);
 	allocateNode(rootNode);
-	rootLocation = lastAccessed;
+	rootLocation = rootNode.getLocation();
 	this.cacheSize = cacheSize;
 	if (cacheSize > 0) {
-	    this.bTreeCache = new BTreeCache(cacheSize);
+	    this.bTreeCache = new BTreeCache(cacheSize, BTreeCache.createPolicy(cachePolicy, cacheSize));
 	}
     }
 
@@ -59,13 +119,38 @@ public class BTree {
      * @param cacheSize  is cacheSize implemented
      */
     public BTree(RandomAccessFile randomFile, int cacheSize) {
-	this.randomFile = randomFile;
+	this(randomFile, cacheSize, "lru");
+    }
+
+    /**
+     * Constructor for the BTree when the BTree is searched
+     * 
+     * @param randomFile  is the randomFile from where the BTree will be searched
+     * @param cacheSize   is cacheSize implemented
+     * @param cachePolicy is the eviction policy of the Cache (lru, clock, 2q or
+     *                    arc)
+     */
+    public BTree(RandomAccessFile randomFile, int cacheSize, String cachePolicy) {
+	this(new RandomAccessFileStorage(randomFile), cacheSize, cachePolicy);
+    }
+
+    /**
+     * Constructor for the BTree when the BTree is searched on a storage backend
+     * 
+     * @param storage     is the storage from where the BTree will be searched
+     * @param cacheSize   is cacheSize implemented
+     * @param cachePolicy is the eviction policy of the Cache (lru, clock, 2q or
+     *                    arc)
+     */
+    public BTree(BTreeStorage storage, int cacheSize, String cachePolicy) {
+	this.storage = storage;
 	this.degree = 0;
 	this.rootNode = null;
 	this.rootLocation = 0;
 	this.treeNumNodes = 0;
+	this.cacheSize = cacheSize;
 	if (cacheSize > 0) {
-	    bTreeCache = new BTreeCache(cacheSize);
+	    bTreeCache = new BTreeCache(cacheSize, BTreeCache.createPolicy(cachePolicy, cacheSize));
 	}
     }
 
@@ -76,15 +161,30 @@ public class BTree {
      * @param degree is the user input degree
      * @return the optimal dgree for this simualtion
      */
-    private int optimalDegree(int degree) {
+    static int optimalDegree(int degree) {
+	return optimalDegree(degree, false);
+    }
+
+    /**
+     * Returns the degree it is equal to or greater than 2 , otherwise returns
+     * optimal degree for the key width
+     * 
+     * @param degree   is the user input degree
+     * @param wideKeys is true for 128-bit keys, which take 8 more bytes each
+     * @return the optimal dgree for this simualtion
+     */
+    static int optimalDegree(int degree, boolean wideKeys) {
 	if (degree >= 2) {
 	    return degree;
 	} else { // calculate optimal degree
 	    int keyByte = 8 + 4 + 4;// 8 for long subString, 4 for int frequency, 4 for NIL/DELETED/OCCUPIED
+	    if (wideKeys) {
+		keyByte += 8; // 8 for the high key
+	    }
 	    int pointer = 4;//
 	    int metaData = 4 + 4 + 1; // how many elements, location, leaf or not
-	    int optimalDegree = (4096 + keyByte - pointer - metaData) / 40;// 16(2t-1)+4(2t+1)+ 9 <=4096,
-									   // t=optimalDegree
+	    // keyByte(2t-1)+4(2t+1)+ 9 <=4096, t=optimalDegree
+	    int optimalDegree = (4096 + keyByte - pointer - metaData) / (2 * keyByte + 2 * pointer);
 	    return optimalDegree;
 	}
     }
@@ -94,10 +194,45 @@ public class BTree {
      * 
      * @param treeObject is the treeObject to be inserted
      */
-    public void bTree_insert(TreeObject treeObject) { // Insert condition: 0= NIL, 1= OCCUPIED, 2= DELETED
+    public void bTree_insert(TreeObject treeObject) {
+	bTree_insert(treeObject.getHighKey(), treeObject.getBinaryKey(), 1);
+    }
+
+    /**
+     * BTree insert method. If the key is already in the BTree its frequency is
+     * incremented.
+     * 
+     * @param binaryKey is the binary key of the DNA sequence to be inserted
+     */
+    public void bTree_insert(long binaryKey) {
+	bTree_insert(binaryKey, 1);
+    }
+
+    /**
+     * BTree insert method for a key found frequency times. If the key is already in
+     * the BTree the frequency is added to its frequency.
+     * 
+     * @param binaryKey is the binary key of the DNA sequence to be inserted
+     * @param frequency is the number of times the DNA sequence was found
+     */
+    public void bTree_insert(long binaryKey, int frequency) {
+	bTree_insert(0, binaryKey, frequency);
+    }
+
+    /**
+     * BTree insert method for a 128-bit key found frequency times. If the key is
+     * already in the BTree the frequency is added to its frequency.
+     * 
+     * @param highKey   is the high key of the DNA sequence, 0 if the keys are not
+     *                  128-bit
+     * @param binaryKey is the binary key of the DNA sequence to be inserted
+     * @param frequency is the number of times the DNA sequence was found
+     */
+    public void bTree_insert(long highKey, long binaryKey, int frequency) {
+	// Insert condition: 0= NIL, 1= OCCUPIED, 2= DELETED
 	TreeNode root = rootNode;
 	if (root.getCurrentNumKeys() == (2 * degree - 1)) {// full node
-	    TreeNode split = new TreeNode(degree);// this location n
+	    TreeNode split = new TreeNode(degree, wideKeys);// this location n
 	    allocateNode(split);
 
 	    // root's parent pointer is never set. thus default to zero
@@ -110,97 +245,70 @@ public class BTree {
 	    split.setCurrentNumKeys(0); // no movement yet
 
 	    split.setChildPointer(0, root.getLocation());// or root.getLocation
-	    split.setChild(0, root);
 	    root.setParentPointer(split.getLocation());// just allocated
 
 	    bTree_Split_Child(split, 0, root);
 
-	    bTree_Insert_Nonfull(split, treeObject);// will start from the root, and split is the new root
+	    bTree_Insert_Nonfull(split, highKey, binaryKey, frequency);// will start from the root, and split is the new root
 	} else {
-	    bTree_Insert_Nonfull(root, treeObject);
+	    bTree_Insert_Nonfull(root, highKey, binaryKey, frequency);
 	}
     }
 
     /**
-     * Helper method for the BTree insert. It inserts treeObject when the node is
-     * non full
+     * Helper method for the BTree insert. It inserts the key when the node is non
+     * full. Keys are moved by value, so a node never shares its TreeObjects with
+     * another node.
      * 
      * @param parentNode is the parentNode
-     * @param treeObject is the treeObject
+     * @param highKey    is the high key to be inserted
+     * @param binaryKey  is the binary key to be inserted
+     * @param frequency  is the frequency of the key
      */
-    private void bTree_Insert_Nonfull(TreeNode parentNode, TreeObject treeObject) {
-	boolean contains = false;
-	int containIndex = 0;
+    private void bTree_Insert_Nonfull(TreeNode parentNode, long highKey, long binaryKey, int frequency) {
+	int found = parentNode.findKey(highKey, binaryKey);
+	if (found >= 0) { // the keys of a node are all OCCUPIED
+	    parentNode.addTreefrequency(found, frequency);
+	    parentNode.setDirty(true);
+	    write_Node(parentNode);
+	    return;
+	}
+	int index = -(found + 1); // the insertion point
 	if (parentNode.isLeaf()) {
-	    for (int i = 0; i < parentNode.getCurrentNumKeys(); i++) {
-		if (treeObject.compareTo(parentNode.getTreeObject(i)) == 0) {
-		    contains = true;
-		    containIndex = i;
-		}
+	    for (int i = parentNode.getCurrentNumKeys(); i > index; i--) {
+		parentNode.copyTreeObject(i, parentNode, i - 1);
 	    }
-
-	    if (contains && parentNode.getTreeObject(containIndex).getKeyCondition() != 0) {
-		parentNode.getTreeObject(containIndex).incrementFrequency();
-	    } else if (contains && parentNode.getTreeObject(containIndex).getKeyCondition() == 0) {
-		parentNode.setTreeObject(containIndex, treeObject);
-		parentNode.incrementCurrentNumKeys();
-		parentNode.getTreeObject(containIndex).setKeyCondition(1);
-	    } else {
-		int index = parentNode.getCurrentNumKeys();
-		while (index >= 1 && treeObject.compareTo(parentNode.getTreeObject(index - 1)) < 0) {
-		    parentNode.setTreeObject(index, parentNode.getTreeObject(index - 1));
-		    index--;
-		}
-		parentNode.setTreeObject(index, treeObject);
-		parentNode.incrementCurrentNumKeys();
-		parentNode.getTreeObject(index).setKeyCondition(1);
+	    parentNode.setTreeKey(index, binaryKey);
+	    if (wideKeys) {
+		parentNode.setTreeHighKey(index, highKey);
 	    }
-
+	    parentNode.setTreefrequency(index, frequency);
+	    parentNode.setNodeKeyCondition(index, 1);
+	    parentNode.incrementCurrentNumKeys();
+	    parentNode.setDirty(true);
 	    write_Node(parentNode);
 	} else {// if not leaf only the rootNode will descend and have parent,
 		// firstChild<-descend to this child
-	    for (int i = 0; i < parentNode.getCurrentNumKeys(); i++) {
-		if (treeObject.compareTo(parentNode.getTreeObject(i)) == 0) {
-		    contains = true;
-		    containIndex = i;
-		}
-	    }
-	    if (contains && parentNode.getTreeObject(containIndex).getKeyCondition() != 0) {
-		parentNode.getTreeObject(containIndex).incrementFrequency();
-		write_Node(parentNode);
-	    } else {
-		int index = parentNode.getCurrentNumKeys();
-		while (index >= 1 && treeObject.compareTo(parentNode.getTreeObject(index - 1)) < 0) {
-		    index--;
-		}
-		TreeNode childNode = bTree_Read(parentNode.getChildPointer(index));
-		parent = parentNode;
-		firstChild = childNode;
-		if (childNode.getCurrentNumKeys() == (2 * degree - 1)) {
-		    bTree_Split_Child(parentNode, index, childNode);
-		    for (int i = 0; i < parentNode.getCurrentNumKeys(); i++) {
-			if (treeObject.compareTo(parentNode.getTreeObject(i)) == 0) {
-			    contains = true;
-			    containIndex = i;
-			}
-		    }
-		    if (contains && parentNode.getTreeObject(containIndex).getKeyCondition() != 0) {
-			parentNode.getTreeObject(containIndex).incrementFrequency();
-			write_Node(parentNode);
-		    } else {
-
-			if (treeObject.compareTo(parentNode.getTreeObject(index)) > 0) {
-			    bTree_Insert_Nonfull(secondChild, treeObject);
-			} else {
-			    bTree_Insert_Nonfull(childNode, treeObject);
-			}
-		    }
+	    TreeNode childNode = bTree_Read(parentNode.getChildPointer(index));
+	    parent = parentNode;
+	    firstChild = childNode;
+	    if (childNode.getCurrentNumKeys() == (2 * degree - 1)) {
+		bTree_Split_Child(parentNode, index, childNode);
+		// the middle key of the child moved up to the index
+		int middle = parentNode.compareKey(index, highKey, binaryKey);
+		if (middle == 0) {
+		    parentNode.addTreefrequency(index, frequency);
+		    parentNode.setDirty(true);
+		    write_Node(parentNode);
+		} else if (middle < 0) {
+		    bTree_Insert_Nonfull(secondChild, highKey, binaryKey, frequency);
 		} else {
-		    bTree_Insert_Nonfull(childNode, treeObject);// something is wrong here
+		    bTree_Insert_Nonfull(childNode, highKey, binaryKey, frequency);
 		}
+	    } else {
+		bTree_Insert_Nonfull(childNode, highKey, binaryKey, frequency);
 	    }
 	}
-
     }
 
     // split_child(X, i, Y) meaning X's ith child is Y, where Y is full (otherwise
@@ -215,11 +323,10 @@ public class BTree {
      * @param firstChildNode is the firstChildNode
      */
     private void bTree_Split_Child(TreeNode parentNode, int index, TreeNode firstChildNode) {
-	TreeNode secondChildNode = new TreeNode(degree); // is the z
+	TreeNode secondChildNode = new TreeNode(degree, wideKeys); // is the z
 
 	allocateNode(secondChildNode);
 
-	parentNode.setChild(index, firstChildNode);// first child will be here, , second child will be in (index+1)
 	parentNode.setChildPointer(index, firstChildNode.getLocation());
 
 	secondChildNode.setLeaf(firstChildNode.getLeaf());
@@ -228,9 +335,7 @@ public class BTree {
 	// setting keys, frequency, key type
 	for (int j = 0; j < (degree - 1); j++) {
 	    // largest treeObjects from y will go to z
-	    secondChildNode.setTreeObject(j, firstChildNode.getTreeObject(j + degree));
-	    secondChildNode.setTreefrequency(j, firstChildNode.getTreefrequency(j + degree));
-	    secondChildNode.setNodeKeyCondition(j, firstChildNode.getNodeKeyCondition(j + degree));
+	    secondChildNode.copyTreeObject(j, firstChildNode, j + degree);
 	}
 
 	if (!firstChildNode.isLeaf()) { // if leaf there is no children
@@ -249,20 +354,21 @@ public class BTree {
 	}
 
 	parentNode.setChildPointer(index + 1, secondChildNode.getLocation());
-	parentNode.setChild(index + 1, secondChildNode);
 	secondChildNode.setParentPointer(parentNode.getLocation());
 
 	for (int j = parentNode.getCurrentNumKeys() - 1; j > index - 1; j--) {
-	    parentNode.setTreeObject(j + 1, parentNode.getTreeObject(j));
+	    parentNode.copyTreeObject(j + 1, parentNode, j);
 	}
-	parentNode.setTreeObject(index, firstChildNode.getTreeObject(degree - 1));
-	parentNode.getTreeObject(index).setKeyCondition(firstChildNode.getTreeObject(degree - 1).getKeyCondition());
+	parentNode.copyTreeObject(index, firstChildNode, degree - 1);
 	parentNode.incrementCurrentNumKeys();
 
 	this.firstChild = firstChildNode;
 	this.secondChild = secondChildNode;
 	this.parent = parentNode;
 
+	firstChildNode.setDirty(true);
+	secondChildNode.setDirty(true);
+	parentNode.setDirty(true);
 	write_Node(firstChildNode);
 	write_Node(secondChildNode);
 	write_Node(parentNode);
@@ -270,19 +376,16 @@ public class BTree {
 
     /**
      * Writes the nodes to the file if the cache is not implemented, otherwise
-     * writes in the Cache
+     * writes in the Cache. A node evicted from the Cache is written back only if
+     * it is dirty.
      * 
      * @param treeNode is the treeNode to be written
      */
     private void write_Node(TreeNode treeNode) {
 	if (cacheSize > 0) {
-	    if ((bTreeCache.removeContains(treeNode.getLocation())) != null) {
-		bTreeCache.addToFrontCache(treeNode);
-	    } else {
-		if (bTreeCache.cacheFull()) {
-		    disk_Write(bTreeCache.removeLastCache());
-		}
-		bTreeCache.addToFrontCache(treeNode);
+	    TreeNode removedNode = bTreeCache.addToFrontCache(treeNode);
+	    if (removedNode != null && removedNode.isDirty()) {
+		disk_Write(removedNode);
 	    }
 	} else {
 	    disk_Write(treeNode);
@@ -290,63 +393,20 @@ public class BTree {
     }
 
     /**
-     * Writes the treeNode to the disk file at the node's allocated location
+     * Writes the treeNode to the disk file at the node's allocated location, with
+     * one write of the codec buffer
      * 
      * @param treeNode is the treeNode to be written
      */
     private void disk_Write(TreeNode treeNode) {
-	int location = treeNode.getLocation();
 	try {
-	    randomFile.seek(location); // set pointer to the start of the location
-	    ByteBuffer finalBuffer = ByteBuffer.allocate(nodeLength());// final Buffer
-
-	    // adjusting node meta data
-	    byte[] boolArr = new byte[] { (byte) (treeNode.getLeaf() ? 1 : 0) };
-	    finalBuffer = finalBuffer.put(boolArr);
-
-	    int[] metaArr = { treeNode.getCurrentNumKeys(), treeNode.getLocation() };
-	    for (int i = 0; i < 2; i++) {
-		ByteBuffer intBufferM = ByteBuffer.allocate(4);
-		byte[] intArrM = intBufferM.putInt(metaArr[i]).array();
-		finalBuffer = finalBuffer.put(intArrM);
-	    }
-
-	    // byte [] vOut = new byte[]{(byte) (vIn?1:0)};
-	    // adjusting keys
-	    for (int i = 0; i < treeNode.getCurrentNumKeys(); i++) {
-		ByteBuffer longBuffer = ByteBuffer.allocate(8);
-		byte[] longArr = longBuffer.putLong(treeNode.getTreeObject(i).getBinaryKey()).array();
-		finalBuffer = finalBuffer.put(longArr);
-
-		ByteBuffer intBuffer = ByteBuffer.allocate(4);
-		byte[] intArr = intBuffer.putInt(treeNode.getTreeObject(i).getFrequency()).array();
-		finalBuffer = finalBuffer.put(intArr);
-
-		ByteBuffer intKBuffer = ByteBuffer.allocate(4);
-		byte[] intKArr = intKBuffer.putInt(treeNode.getNodeKeyCondition(i)).array();
-		finalBuffer = finalBuffer.put(intKArr);
-	    }
-
-	    // adjusting child locations
-	    for (int i = 0; i < treeNode.getCurrentNumKeys() + 1; i++) {
-		ByteBuffer intBufferC = ByteBuffer.allocate(4);
-		byte[] intArrC = intBufferC.putInt(treeNode.getChildPointer(i)).array();
-		finalBuffer = finalBuffer.put(intArrC);
-	    }
-
-	    // adjusting parent location
-	    ByteBuffer intBufferP = ByteBuffer.allocate(4);
-	    byte[] intArrP = intBufferP.putInt(treeNode.getParentPointer()).array();
-	    finalBuffer = finalBuffer.put(intArrP);
-
-	    byte[] finalBufferArr = finalBuffer.array();
-	    randomFile.write(finalBufferArr, 0, finalBufferArr.length);
-
+	    codec.write(storage, treeNode);
+	    treeNode.setDirty(false);
+	    diskWrites++;
 	} catch (IOException e) {
 	    System.err.println("Cannot write to file");
 	    e.printStackTrace();
 	}
-
     }
 
     /**
@@ -359,15 +419,14 @@ public class BTree {
     public TreeNode bTree_Read(int location) {
 	if (cacheSize > 0) {
 	    TreeNode readNode;
-	    if ((readNode = bTreeCache.removeContains(location)) != null) {
-		bTreeCache.addToFrontCache(readNode);
+	    if ((readNode = bTreeCache.getCacheNode(location)) != null) {
 		return readNode;
 	    } else {
 		readNode = disk_Read(location);
-		if (bTreeCache.cacheFull()) {
-		    disk_Write(bTreeCache.removeLastCache());
+		TreeNode removedNode = bTreeCache.addToFrontCache(readNode);
+		if (removedNode != null && removedNode.isDirty()) {
+		    disk_Write(removedNode);
 		}
-		bTreeCache.addToFrontCache(readNode);
 		return readNode;
 	    }
 	} else {
@@ -376,48 +435,17 @@ public class BTree {
     }
 
     /**
-     * Reads the node at the location from the BTree file.
+     * Reads the node at the location from the BTree file, with one read into the
+     * codec buffer.
      * 
      * @param location of the BTree Node
      * @return the BTree node
      */
     private TreeNode disk_Read(int location) {
-	TreeNode readNode = new TreeNode(degree);
+	TreeNode readNode = new TreeNode(degree, wideKeys);
+	diskReads++;
 	try {
-	    randomFile.seek(location);
-	    byte[] readBuffer = new byte[4096];
-
-	    // reading boolean
-	    randomFile.read(readBuffer, 0, 1);
-	    readNode.setLeaf(readBuffer[0] != 0);
-	    // System.out.print("disk read.. leaf:" + readNode.getLeaf());
-
-	    // read next metaData , two Ints
-	    randomFile.read(readBuffer, 0, 8);
-	    ByteBuffer numBuf = ByteBuffer.wrap(readBuffer);
-	    int numKeys = numBuf.getInt();
-	    readNode.setCurrentNumKeys(numKeys);
-	    readNode.setLocation(numBuf.getInt());
-
-	    // already pointer is changed to location position of the node
-	    randomFile.read(readBuffer, 0, nodeByteLength(numKeys));
-	    ByteBuffer finalBuff = ByteBuffer.wrap(readBuffer);
-
-	    // set keys
-	    for (int i = 0; i < numKeys; i++) {
-		readNode.setTreeKey(i, finalBuff.getLong());
-		readNode.setTreefrequency(i, finalBuff.getInt());
-		readNode.setNodeKeyCondition(i, finalBuff.getInt());
-	    }
-
-	    // set child location
-	    for (int i = 0; i < numKeys + 1; i++) {
-		readNode.setChildPointer(i, finalBuff.getInt());
-	    }
-
-	    // set parent location
-	    readNode.setParentPointer(finalBuff.getInt());
-
+	    codec.read(storage, location, readNode);
 	} catch (IOException e) {
 	    System.err.println("Cannot Read file");
 	    e.printStackTrace();
@@ -431,25 +459,243 @@ public class BTree {
      * 
      * @param node     is supposed to be the root node to search the entire tree.
      * @param treeLong is the object to be matched in the BTree
-     * @return the node if found otherwise returns null
+     * @return a copy of the TreeObject if found otherwise returns null
      */
     public TreeObject bTree_Search(TreeNode node, long treeLong) {
-	int index = 0;
-	TreeObject nullTreeObject = null;
-	TreeObject treeObject = new TreeObject(treeLong);
-	while (index < node.getCurrentNumKeys() && treeObject.compareTo(node.getTreeObject(index)) > 0) {
-	    index++;
-	}
-	if (index < node.getCurrentNumKeys() && treeObject.compareTo(node.getTreeObject(index)) == 0) {
-	    return node.getTreeObject(index);
-	} else if (node.isLeaf()) {
-	    return nullTreeObject;
-	} else {
-	    TreeNode childNode = bTree_Read(node.getChildPointer(index));
-	    return bTree_Search(childNode, treeLong);
+	while (true) {
+	    int index = node.findKey(0, treeLong);
+	    if (index >= 0) {
+		return node.getTreeObject(index);
+	    } else if (node.isLeaf()) {
+		return null;
+	    }
+	    node = bTree_Read(node.getChildPointer(-(index + 1)));
 	}
     }
 
+    /**
+     * Searches the BTree from the root for a binary key, as a 128-bit key with a
+     * high key of 0. Nothing is allocated unless a node has to be read from the
+     * file.
+     * 
+     * @param binaryKey is the binary key of the DNA sequence
+     * @return the frequency of the key, 0 if the key is not in the BTree
+     */
+    public int bTree_Search(long binaryKey) {
+	return bTree_Search(0, binaryKey);
+    }
+
+    /**
+     * Searches the BTree from the root for a 128-bit key
+     * 
+     * @param highKey   is the high key of the DNA sequence, 0 if the keys are not
+     *                  128-bit
+     * @param binaryKey is the binary key of the DNA sequence
+     * @return the frequency of the key, 0 if the key is not in the BTree
+     */
+    public int bTree_Search(long highKey, long binaryKey) {
+	TreeNode node = rootNode;
+	while (true) {
+	    int index = node.findKey(highKey, binaryKey);
+	    if (index >= 0) {
+		return node.getTreefrequency(index);
+	    } else if (node.isLeaf()) {
+		return 0;
+	    }
+	    node = bTree_Read(node.getChildPointer(-(index + 1)));
+	}
+    }
+
+    /**
+     * Streams the keys of the BTree from low to high, both included, with their
+     * frequencies in increasing key order. Only the subtrees which can hold a key
+     * of the range are read.
+     * 
+     * @param low      is the first binary key of the range
+     * @param high     is the last binary key of the range
+     * @param consumer receives the keys and frequencies
+     * @throws IllegalStateException if the keys of the BTree are 128-bit
+     */
+    public void bTree_RangeScan(long low, long high, KmerCountConsumer consumer) {
+	if (wideKeys) {
+	    throw new IllegalStateException("Prefix queries cannot be searched in a BTree of 128-bit keys");
+	}
+	if (low <= high) {
+	    rangeScan(rootNode, low, high, consumer);
+	}
+    }
+
+    /**
+     * Helper method of bTree_RangeScan
+     * 
+     * @param node     is the node to scan
+     * @param low      is the first binary key of the range
+     * @param high     is the last binary key of the range
+     * @param consumer receives the keys and frequencies
+     */
+    private void rangeScan(TreeNode node, long low, long high, KmerCountConsumer consumer) {
+	// the first key not below low; the child before it may still hold keys of the range
+	int index = node.findKey(low);
+	if (index < 0) {
+	    index = -(index + 1);
+	}
+	for (int i = index; i <= node.getCurrentNumKeys(); i++) {
+	    if (!node.isLeaf()) {
+		rangeScan(bTree_Read(node.getChildPointer(i)), low, high, consumer);
+	    }
+	    if (i == node.getCurrentNumKeys() || node.getTreeKey(i) > high) {
+		return;
+	    }
+	    consumer.accept(node.getTreeKey(i), node.getTreefrequency(i));
+	}
+    }
+
+    /**
+     * Returns true if a batch of this size is better merged with an in-order scan.
+     * The descent (bTree_DescendBatch) reads at most one path per key, the scan
+     * (bTree_ScanBatch) reads every node once, so the scan wins when the batch
+     * reaches SCAN_FRACTION of the keys of the BTree.
+     * 
+     * @param numQueries is the number of keys of the batch
+     * @param numKeys    is the estimated number of keys of the BTree
+     * @return true for the scan plan
+     */
+    public boolean isScanPlan(int numQueries, long numKeys) {
+	return numQueries >= SCAN_FRACTION * numKeys;
+    }
+
+    /**
+     * Returns an estimate of the number of keys of the BTree from its number of
+     * nodes and their measured fill. The nodes of a BTree built by inserts are
+     * about ln 2 full, the ones of a bulk loaded BTree are filled to its fill
+     * factor, so the average number of keys of up to FILL_SAMPLES nodes spread
+     * over the file is taken for all the nodes but the root. A BTree of no more
+     * nodes is counted exactly.
+     * 
+     * @return the estimated number of keys
+     * @throws IllegalStateException if the keys of the BTree are 128-bit
+     */
+    public long estimatedNumKeys() {
+	if (wideKeys) {
+	    throw new IllegalStateException("Batch searches cannot be made in a BTree of 128-bit keys");
+	}
+	int numSamples = Math.min(FILL_SAMPLES, treeNumNodes);
+	long sampledKeys = 0;
+	int sampled = 0;
+	for (int i = 0; i < numSamples; i++) {
+	    // the middle node of each of numSamples equal parts of the file
+	    long node = (2L * i + 1) * treeNumNodes / (2 * numSamples);
+	    int location = (int) (METADATA_Offset + node * nodeLength());
+	    if (location != rootLocation) {
+		sampledKeys += bTree_Read(location).getCurrentNumKeys();
+		sampled++;
+	    }
+	}
+	long otherKeys = sampled == 0 ? 0 : (treeNumNodes - 1) * sampledKeys / sampled;
+	return rootNode.getCurrentNumKeys() + otherKeys;
+    }
+
+    /**
+     * Searches a batch of keys with one shared descent. Each node is read once,
+     * and each of its children is descended with the contiguous slice of keys
+     * which falls under it.
+     * 
+     * @param sortedKeys are the binary keys in increasing order, repeats allowed
+     * @return the frequency of each key, 0 if the key is not in the BTree
+     * @throws IllegalStateException if the keys of the BTree are 128-bit
+     */
+    public int[] bTree_DescendBatch(long[] sortedKeys) {
+	if (wideKeys) {
+	    throw new IllegalStateException("Batch searches cannot be made in a BTree of 128-bit keys");
+	}
+	int[] frequencies = new int[sortedKeys.length];
+	if (sortedKeys.length > 0) {
+	    descendBatch(rootNode, sortedKeys, 0, sortedKeys.length, frequencies);
+	}
+	return frequencies;
+    }
+
+    /**
+     * Helper method of bTree_DescendBatch
+     * 
+     * @param node        is the node to search
+     * @param sortedKeys  are all the keys of the batch
+     * @param from        is the first key of the slice under this node
+     * @param to          is one past the last key of the slice
+     * @param frequencies are the frequencies found so far
+     */
+    private void descendBatch(TreeNode node, long[] sortedKeys, int from, int to, int[] frequencies) {
+	int query = from;
+	for (int i = 0; i <= node.getCurrentNumKeys() && query < to; i++) {
+	    // the keys before the ith key of the node go to the ith child
+	    int sliceEnd = query;
+	    if (i < node.getCurrentNumKeys()) {
+		long nodeKey = node.getTreeKey(i);
+		while (sliceEnd < to && sortedKeys[sliceEnd] < nodeKey) {
+		    sliceEnd++;
+		}
+	    } else {
+		sliceEnd = to;
+	    }
+	    if (sliceEnd > query && !node.isLeaf()) {
+		descendBatch(bTree_Read(node.getChildPointer(i)), sortedKeys, query, sliceEnd, frequencies);
+	    }
+	    query = sliceEnd;
+	    if (i < node.getCurrentNumKeys()) {
+		while (query < to && sortedKeys[query] == node.getTreeKey(i)) {
+		    frequencies[query++] = node.getTreefrequency(i);
+		}
+	    }
+	}
+    }
+
+    /**
+     * Searches a batch of keys with a merge join: the BTree is scanned in order
+     * and merged with the sorted keys. The scan stops after the last key of the
+     * batch.
+     * 
+     * @param sortedKeys are the binary keys in increasing order, repeats allowed
+     * @return the frequency of each key, 0 if the key is not in the BTree
+     * @throws IllegalStateException if the keys of the BTree are 128-bit
+     */
+    public int[] bTree_ScanBatch(long[] sortedKeys) {
+	if (wideKeys) {
+	    throw new IllegalStateException("Batch searches cannot be made in a BTree of 128-bit keys");
+	}
+	int[] frequencies = new int[sortedKeys.length];
+	if (sortedKeys.length > 0) {
+	    scanBatch(rootNode, sortedKeys, 0, frequencies);
+	}
+	return frequencies;
+    }
+
+    /**
+     * Helper method of bTree_ScanBatch
+     * 
+     * @param node        is the node to scan
+     * @param sortedKeys  are all the keys of the batch
+     * @param query       is the first key of the batch not merged yet
+     * @param frequencies are the frequencies found so far
+     * @return the first key of the batch not merged yet after this node
+     */
+    private int scanBatch(TreeNode node, long[] sortedKeys, int query, int[] frequencies) {
+	for (int i = 0; i <= node.getCurrentNumKeys() && query < sortedKeys.length; i++) {
+	    if (!node.isLeaf()) {
+		query = scanBatch(bTree_Read(node.getChildPointer(i)), sortedKeys, query, frequencies);
+	    }
+	    if (i < node.getCurrentNumKeys()) {
+		long nodeKey = node.getTreeKey(i);
+		while (query < sortedKeys.length && sortedKeys[query] < nodeKey) {
+		    query++;
+		}
+		while (query < sortedKeys.length && sortedKeys[query] == nodeKey) {
+		    frequencies[query++] = node.getTreefrequency(i);
+		}
+	    }
+	}
+	return query;
+    }
+
     // return this nodes location after allocating
     /**
      * Allocate location of the TreeNode in the BTree file
@@ -458,34 +704,45 @@ public class BTree {
      */
     private void allocateNode(TreeNode treeNode) {
 	treeNode.setLocation(lastAccessed);
+	treeNode.setDirty(true); // never written yet
 	lastAccessed = lastAccessed + nodeLength();
 	incrementTreeNumNodes();
     }
 
     /**
-     * Returns the Byte length of only the node depending on the keys in the node
+     * Calculated the general node length of each node including the metadata of the
+     * tree node
      * 
-     * @param numKeys is the number of keys in the node
-     * @return the Byte length of the node
+     * @return
      */
-    private int nodeByteLength(int numKeys) {// except the node meta data
-	int key = 8 + 4 + 4;
-	int child = 4;
-	int parent = 4;
-	return numKeys * key + (numKeys + 1) * child + parent;
+    private int nodeLength() {// meta data included
+	return nodeLength(degree, wideKeys);
     }
 
     /**
-     * Calculated the general node length of each node including the metadata of the
-     * tree node
+     * Calculated the general node length of each node of a BTree of the degree,
+     * including the metadata of the tree node
      * 
-     * @return
+     * @param degree is the degree of the BTree
+     * @return the length of a node in the file
      */
-    private int nodeLength() {// meta data included
+    static int nodeLength(int degree) {
+	return nodeLength(degree, false);
+    }
+
+    /**
+     * Calculated the general node length of each node of a BTree of the degree and
+     * key width, including the metadata of the tree node
+     * 
+     * @param degree   is the degree of the BTree
+     * @param wideKeys is true for 128-bit keys
+     * @return the length of a node in the file
+     */
+    static int nodeLength(int degree, boolean wideKeys) {
 	int metaData = 9;
 	int child = 4;
 	int parent = 4;
-	int treeObject = 16;
+	int treeObject = wideKeys ? 24 : 16;
 	return metaData + (2 * degree - 1) * (treeObject) + 2 * degree * child + parent;
     }
 
@@ -494,25 +751,21 @@ public class BTree {
      * empties the cache to the file. Then writes the BTree meta_data.
      */
     public void write_Tree_MetaData() {
+	// the root of an empty tree was never written
+	if (rootNode.isDirty()) {
+	    write_Node(rootNode);
+	}
 	// if cache implemented at last writing tree data from cache to file
 	write_Cache_ToFile(); // safe, as checked if cache is implemented
 
 	// write tree meta_data
-	int[] arr = { rootLocation, treeNumNodes, degree };
 	try {
-	    ByteBuffer metaDataFinal = ByteBuffer.allocate(METADATA_Offset);
-	    randomFile.seek(0);
-	    for (int i = 0; i < arr.length; i++) {
-		ByteBuffer metaData = ByteBuffer.allocate(4);
-		byte[] metaDataBuff = metaData.putInt(arr[i]).array();
-		metaDataFinal = metaDataFinal.put(metaDataBuff);
-	    }
-
-	    byte[] byteArr = metaDataFinal.array();
-	    randomFile.write(byteArr, 0, METADATA_Offset);
+	    ByteBuffer metaData = encodeMetaData(rootLocation, treeNumNodes, degree, flags);
+	    metaData.flip();
+	    storage.write(metaData, 0);
 
 	    // at the last this meta_Data will be written
-	    randomFile.close();
+	    storage.close();
 	} catch (IOException e) {
 	    System.err.println("Cannot write BTree metaData");
 	    e.printStackTrace();
@@ -520,30 +773,108 @@ public class BTree {
     }
 
     /**
-     * Writes the Cache nodes to the file.
+     * Returns the BTree meta_data as it is laid out at the start of the file
+     * 
+     * @param rootLocation is the location of the root node
+     * @param numNodes     is the number of nodes of the BTree
+     * @param degree       is the degree of the BTree
+     * @param flags        are the meta_data flags, like CANONICAL_FLAG
+     * @return the buffer holding the METADATA_Offset bytes of meta_data
+     */
+    static ByteBuffer encodeMetaData(int rootLocation, int numNodes, int degree, int flags) {
+	ByteBuffer metaData = ByteBuffer.allocate(METADATA_Offset);
+	metaData.putInt(rootLocation);
+	metaData.putInt(numNodes);
+	metaData.putInt(degree | flags);
+	return metaData;
+    }
+
+    /**
+     * Writes the dirty Cache nodes to the file. The file is first extended to its
+     * final length. The nodes are then sorted by location, and each is encoded in
+     * its own slice of one flush buffer; the slices of nodes lying next to each
+     * other in the file are written with one gathering write, so the whole Cache
+     * is written with a few large sequential writes.
      */
     public void write_Cache_ToFile() {
 	if (cacheSize > 0) {
-	    for (TreeNode cacheNode : bTreeCache.getCacheLinkedList()) {
-		disk_Write(cacheNode);
+	    TreeNode[] dirtyNodes = new TreeNode[bTreeCache.cacheSize()];
+	    int numDirty = 0;
+	    for (TreeNode cacheNode : bTreeCache) {
+		if (cacheNode.isDirty()) {
+		    dirtyNodes[numDirty++] = cacheNode;
+		}
+	    }
+	    Arrays.sort(dirtyNodes, 0, numDirty, Comparator.comparingInt(TreeNode::getLocation));
+
+	    int length = nodeLength();
+	    ByteBuffer[] runBuffers = new ByteBuffer[Math.max(1, Math.min(numDirty, FLUSH_BUFFER_SIZE / length))];
+	    ByteBuffer flushBuffer = ByteBuffer.allocateDirect(runBuffers.length * length);
+	    for (int i = 0; i < runBuffers.length; i++) {
+		flushBuffer.limit((i + 1) * length);
+		flushBuffer.position(i * length);
+		runBuffers[i] = flushBuffer.slice();
+	    }
+	    try {
+		storage.extend(lastAccessed);
+		int runStart = 0; // location of the first node of the run
+		int runLength = 0; // number of nodes of the run
+		for (int i = 0; i < numDirty; i++) {
+		    TreeNode cacheNode = dirtyNodes[i];
+		    if (runLength > 0 && (runLength == runBuffers.length
+			    || cacheNode.getLocation() != runStart + runLength * length)) {
+			write_Run(runStart, runBuffers, runLength);
+			runLength = 0;
+		    }
+		    if (runLength == 0) {
+			runStart = cacheNode.getLocation();
+		    }
+		    ByteBuffer nodeBuffer = runBuffers[runLength++];
+		    nodeBuffer.clear();
+		    NodeCodec.encode(cacheNode, nodeBuffer, length);
+		    nodeBuffer.flip();
+		    cacheNode.setDirty(false);
+		    diskWrites++;
+		}
+		if (runLength > 0) {
+		    write_Run(runStart, runBuffers, runLength);
+		}
+	    } catch (IOException e) {
+		System.err.println("Cannot write to file");
+		e.printStackTrace();
 	    }
 
 	    bTreeCache.clearCache();
 	}
     }
 
+    /**
+     * Writes a run of consecutive nodes to the file with one gathering write
+     * 
+     * @param location   is the location of the first node of the run
+     * @param buffers    hold the encoded nodes, one node each
+     * @param numBuffers is the number of nodes of the run
+     * @throws IOException if the file cannot be written
+     */
+    private void write_Run(int location, ByteBuffer[] buffers, int numBuffers) throws IOException {
+	storage.write(buffers, 0, numBuffers, location);
+    }
+
     /**
      * Reads the BTree meta_data
      */
     public void read_Tree_MetaData() {
-	byte[] metaByte = new byte[100];
+	ByteBuffer metaDataBuff = ByteBuffer.allocate(METADATA_Offset);
 	try {
-	    randomFile.seek(0);
-	    randomFile.read(metaByte, 0, METADATA_Offset);
-	    ByteBuffer metaDataBuff = ByteBuffer.wrap(metaByte);
+	    storage.read(metaDataBuff, 0);
+	    metaDataBuff.flip();
 	    rootLocation = metaDataBuff.getInt();
 	    treeNumNodes = metaDataBuff.getInt();
-	    degree = metaDataBuff.getInt();
+	    int degreeFlags = metaDataBuff.getInt();
+	    degree = degreeFlags & DEGREE_MASK;
+	    flags = degreeFlags & ~DEGREE_MASK;
+	    wideKeys = (flags & WIDE_KEYS_FLAG) != 0;
+	    codec = new NodeCodec(degree, wideKeys);
 	    rootNode = bTree_Read(rootLocation);
 	} catch (IOException e) {
 	    System.err.println("Cannot read Tree MetaData");
@@ -558,22 +889,15 @@ public class BTree {
      * @param length is the length of the DNA sequence
      */
     public void treeTraverseInOrder(TreeNode node, int length) {
-	if (node.getLeaf()) {
-	    for (int i = 0; i < node.getCurrentNumKeys(); ++i) {
-		System.out.print(BinaryFormat.longBinaryString(node.getTreeObject(i).getBinaryKey(), length));
-		System.out.println(": " + node.getTreeObject(i).getFrequency());
-	    }
-	    return;
-	}
-	for (int i = 0; i < node.getCurrentNumKeys() + 1; i++) {
-	    TreeNode currNode = new TreeNode(degree);
-	    currNode = bTree_Read(node.getChildPointer(i));
-	    treeTraverseInOrder(currNode, length);
-	    if (i < node.getCurrentNumKeys()) {
-		System.out.print(BinaryFormat.longBinaryString(node.getTreeObject(i).getBinaryKey(), length));
-		System.out.println(": " + node.getTreeObject(i).getFrequency());
-	    }
+	KmerDumpWriter dump = new KmerDumpWriter(Channels.newChannel(System.out), length);
+	try {
+	    dump.writeAll(new BTreeCursor(this, node));
+	    dump.flush();
+	} catch (IOException e) {
+	    System.err.println("Cannot print the BTree");
+	    e.printStackTrace();
 	}
+	System.out.flush();
     }
 
     /**
@@ -585,28 +909,57 @@ public class BTree {
      * @throws IOException
      */
     public void writeTreeInOderToFile(TreeNode node, int length, PrintWriter writer) throws IOException {
-	// fileName = fileName + ".BTree.dump." + length;
 	// ***** must must must use close writer after this method *****
-
-	if (node.getLeaf()) {
-	    for (int i = 0; i < node.getCurrentNumKeys(); ++i) {
-		writer.print(BinaryFormat.longBinaryString(node.getTreeObject(i).getBinaryKey(), length));
-		writer.print(": " + node.getTreeObject(i).getFrequency());
-		writer.print("\n");
-	    }
-	    return;
+	BTreeCursor cursor = new BTreeCursor(this, node);
+	while (cursor.next()) {
+	    writer.print(BinaryFormat.longBinaryString(cursor.getHighKey(), cursor.getKey(), length));
+	    writer.print(": " + cursor.getFrequency());
+	    writer.print("\n");
 	}
-	for (int i = 0; i < node.getCurrentNumKeys() + 1; i++) {
-	    TreeNode currNode = new TreeNode(degree);
-	    currNode = bTree_Read(node.getChildPointer(i));
-	    writeTreeInOderToFile(currNode, length, writer);
-	    if (i < node.getCurrentNumKeys()) {
-		writer.print(BinaryFormat.longBinaryString(node.getTreeObject(i).getBinaryKey(), length));
-		writer.println(": " + node.getTreeObject(i).getFrequency());
-	    }
+    }
+
+    /**
+     * Writes the whole BTree in order to a dump file, one line "DNA string:
+     * frequency" per key
+     * 
+     * @param fileName is the dump file
+     * @param length   is the length of the DNA sequence
+     * @return the number of keys written
+     * @throws IOException if the dump file cannot be written
+     */
+    public long writeDump(String fileName, int length) throws IOException {
+	try (KmerDumpWriter dump = new KmerDumpWriter(fileName, length)) {
+	    return dump.writeAll(new BTreeCursor(this));
 	}
     }
 
+    /**
+     * Returns the Cache of the BTree
+     * 
+     * @return the Cache, or null if no Cache is implemented
+     */
+    public BTreeCache getBTreeCache() {
+	return bTreeCache;
+    }
+
+    /**
+     * Returns the number of nodes read from the file
+     * 
+     * @return the number of node reads
+     */
+    public long getDiskReads() {
+	return diskReads;
+    }
+
+    /**
+     * Returns the number of nodes written to the file
+     * 
+     * @return the number of node writes
+     */
+    public long getDiskWrites() {
+	return diskWrites;
+    }
+
     /**
      * Returns the BTree degree
      * 
@@ -625,6 +978,35 @@ public class BTree {
 	this.degree = degree;
     }
 
+    /**
+     * Returns true if the keys of the BTree are canonical DNA sequences, each the
+     * smaller of a DNA sequence and its reverse complement
+     * 
+     * @return true for canonical keys
+     */
+    public boolean isCanonical() {
+	return (flags & CANONICAL_FLAG) != 0;
+    }
+
+    /**
+     * Returns true if the keys of the BTree are 128-bit, for DNA sequences longer
+     * than 31
+     * 
+     * @return true for 128-bit keys
+     */
+    public boolean isWideKeys() {
+	return wideKeys;
+    }
+
+    /**
+     * Records in the meta_data whether the keys are canonical DNA sequences
+     * 
+     * @param canonical is true for canonical keys
+     */
+    public void setCanonical(boolean canonical) {
+	flags = canonical ? flags | CANONICAL_FLAG : flags & ~CANONICAL_FLAG;
+    }
+
     /**
      * Returns the root node of the BTree
      * 
@@ -0,0 +1,564 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * BTreeBulkLoader builds a BTree file bottom up from keys given in increasing
+ * order, instead of inserting them one by one from the root. The file has the
+ * same layout as the one written by BTree, so BTree.read_Tree_MetaData and
+ * bTree_Search read it as usual.
+ * 
+ * As the number of keys is known in advance, the shape of the whole tree is
+ * computed first: how many nodes each level has, and how many keys each node
+ * holds (as close to the fill factor as the BTree rules allow). Each level is
+ * then laid out as one contiguous region of the file, leaves first and the root
+ * last. The keys are streamed through once; a key either fills the open node of
+ * the lowest level or, if that node is complete, goes up as the separator of its
+ * parent. Completed nodes are appended to a large buffer per level, so the file
+ * is written with a few sequential writes and no node is ever read back. The
+ * file is written through a BTreeStorage of the backend asked for.
+ * 
+ * If the number of keys is not known in advance (the size of the iterator is
+ * -1, as after an external merge), the leaves are streamed first, each filled
+ * to the fill factor, and the keys going up are written to a temporary file.
+ * The last two leaves are kept back until the end, so that the last one can be
+ * merged with or topped up from the one before it. The levels above are then
+ * loaded from the temporary file, whose number of keys is known. The parent of
+ * each leaf is noted as the level above is laid out, and the parent pointers
+ * are then written in one pass over the leaves, a level buffer at a time.
+ * 
+ * @author Sajia Zafreen
+ */
+public class BTreeBulkLoader {
+    private static final int LEVEL_BUFFER_SIZE = 1 << 18; // write size of each level
+
+    private String fileName;
+    private int degree;
+    private int nodeKeys; // keys per node asked by the fill factor
+    private int nodeLength;
+
+    // shape of the tree, per level (0 = leaves)
+    private int numLevels;
+    private int[] levelNodes;
+    private int[] levelFirstNode; // index of the first node of the level in the file
+    private int[] levelBaseKeys; // each node has this many keys ...
+    private int[] levelExtraKeys; // ... plus one for the first levelExtraKeys nodes
+
+    // build state, per level
+    private TreeNode[] openNodes;
+    private int[] openIndex; // index of the open node in its level
+    private int[] openFilled; // keys in the open node
+    private ByteBuffer[] levelBuffers;
+    private int[] bufferFirstNode; // index in the level of the first node in the buffer
+
+    private String storageName; // backend of the BTree file
+    private BTreeStorage storage;
+    private int numNodes;
+    private int flags; // meta_data flags
+
+    // streamed leaves, when the number of keys is not known in advance
+    private boolean streamedLeaves;
+    private int[] lastLeafKeys = new int[2]; // keys of the last two leaves, the others have nodeKeys
+    private int[] leafParents; // location of the parent of each leaf
+
+    /**
+     * Constructor of the BTreeBulkLoader
+     * 
+     * @param fileName   is the file where the BTree will be written
+     * @param degree     is the degree of the BTree, 0 for the optimal degree
+     * @param fillFactor is the fraction (0 to 1] of the 2t-1 keys used in each node
+     */
+    public BTreeBulkLoader(String fileName, int degree, double fillFactor) {
+	this(fileName, degree, fillFactor, BTreeStorage.DEFAULT_STORAGE);
+    }
+
+    /**
+     * Constructor of the BTreeBulkLoader on a storage backend
+     * 
+     * @param fileName    is the file where the BTree will be written
+     * @param degree      is the degree of the BTree, 0 for the optimal degree
+     * @param fillFactor  is the fraction (0 to 1] of the 2t-1 keys used in each
+     *                    node
+     * @param storageName is the storage backend of the BTree file: raf or channel
+     */
+    public BTreeBulkLoader(String fileName, int degree, double fillFactor, String storageName) {
+	this.fileName = fileName;
+	this.storageName = storageName;
+	this.degree = BTree.optimalDegree(degree);
+	int maxKeys = 2 * this.degree - 1;
+	this.nodeKeys = Math.max(this.degree - 1, Math.min(maxKeys, (int) Math.round(fillFactor * maxKeys)));
+	this.nodeLength = BTree.nodeLength(this.degree);
+    }
+
+    /**
+     * Writes the BTree holding all the keys of the iterator with their counts as
+     * frequencies.
+     * 
+     * @param counts gives the distinct keys in increasing order
+     * @throws IOException if the BTree file cannot be written
+     */
+    public void load(KmerCountIterator counts) throws IOException {
+	// the file is written from scratch, nothing of a former BTree file is kept
+	Files.deleteIfExists(Paths.get(fileName));
+	storage = BTreeStorage.open(fileName, true, storageName);
+	try {
+	    int rootLocation;
+	    if (counts.size() < 0) {
+		rootLocation = loadStreamed(counts);
+	    } else {
+		computeShape(counts.size());
+		openLevels(0);
+		storage.extend(BTree.METADATA_Offset + (long) numNodes * nodeLength);
+		long numKeys = 0;
+		while (counts.next()) {
+		    place(0, counts.getKey(), counts.getCount(), 0);
+		    numKeys++;
+		}
+		if (numKeys != counts.size()) {
+		    throw new IllegalStateException(counts.size() + " keys announced, " + numKeys + " given");
+		}
+		rootLocation = finish(0, 0);
+	    }
+	    ByteBuffer metaData = BTree.encodeMetaData(rootLocation, numNodes, degree, flags);
+	    metaData.flip();
+	    storage.write(metaData, 0);
+	} finally {
+	    storage.close();
+	}
+    }
+
+    /**
+     * Streams the leaves while the keys come, then loads the levels above from
+     * the keys which went up, saved in a temporary file.
+     * 
+     * @param counts gives the distinct keys in increasing order
+     * @return the location of the root
+     * @throws IOException if the BTree file or the temporary file cannot be
+     *                     written
+     */
+    private int loadStreamed(KmerCountIterator counts) throws IOException {
+	computeShape(0); // the leaves only, their number is set at the end
+	levelNodes[0] = 0;
+	streamedLeaves = true;
+	openLevels(0);
+	TreeNode current = openNodes[0];
+	TreeNode held = new TreeNode(degree); // the last complete leaf, not written yet
+	int heldFilled = -1; // no leaf held
+	long heldKey = 0; // the key after the held leaf
+	int heldFrequency = 0;
+	int filled = 0;
+
+	File separatorFile = File.createTempFile("separators", ".tmp",
+		new File(fileName).getAbsoluteFile().getParentFile());
+	separatorFile.deleteOnExit();
+	try {
+	    long numSeparators = 0;
+	    try (DataOutputStream separators = new DataOutputStream(
+		    new BufferedOutputStream(new FileOutputStream(separatorFile), 1 << 16))) {
+		while (counts.next()) {
+		    if (filled < nodeKeys) {
+			setKey(current, filled++, counts.getKey(), counts.getCount());
+			continue;
+		    }
+		    // the current leaf is complete, the key goes up
+		    if (heldFilled >= 0) {
+			writeLeaf(held, heldFilled);
+			separators.writeLong(heldKey);
+			separators.writeInt(heldFrequency);
+			numSeparators++;
+		    }
+		    TreeNode swap = held;
+		    held = current;
+		    current = swap;
+		    heldFilled = filled;
+		    heldKey = counts.getKey();
+		    heldFrequency = counts.getCount();
+		    filled = 0;
+		}
+
+		if (heldFilled < 0) {
+		    writeLeaf(current, filled); // the only leaf is the root
+		} else if (filled >= degree - 1) {
+		    writeLeaf(held, heldFilled);
+		    separators.writeLong(heldKey);
+		    separators.writeInt(heldFrequency);
+		    numSeparators++;
+		    writeLeaf(current, filled);
+		} else {
+		    // the last leaf is too small: both leaves and the key between them
+		    // are laid out again in one or two leaves
+		    int total = heldFilled + 1 + filled;
+		    long[] keys = new long[total];
+		    int[] frequencies = new int[total];
+		    for (int i = 0; i < heldFilled; i++) {
+			keys[i] = held.getTreeKey(i);
+			frequencies[i] = held.getTreefrequency(i);
+		    }
+		    keys[heldFilled] = heldKey;
+		    frequencies[heldFilled] = heldFrequency;
+		    for (int i = 0; i < filled; i++) {
+			keys[heldFilled + 1 + i] = current.getTreeKey(i);
+			frequencies[heldFilled + 1 + i] = current.getTreefrequency(i);
+		    }
+		    int left = total <= 2 * degree - 1 ? total : (total - 1) / 2;
+		    for (int i = 0; i < left; i++) {
+			setKey(held, i, keys[i], frequencies[i]);
+		    }
+		    writeLeaf(held, left);
+		    if (left < total) {
+			separators.writeLong(keys[left]);
+			separators.writeInt(frequencies[left]);
+			numSeparators++;
+			for (int i = left + 1; i < total; i++) {
+			    setKey(current, i - left - 1, keys[i], frequencies[i]);
+			}
+			writeLeaf(current, total - left - 1);
+		    }
+		}
+	    }
+	    flushLevel(0);
+
+	    // the levels above the leaves
+	    int numLeaves = openIndex[0];
+	    levelNodes[0] = numLeaves;
+	    numNodes = numLeaves;
+	    if (numSeparators == 0) {
+		return location(0, 0);
+	    }
+	    addLevels(numSeparators);
+	    leafParents = new int[numLeaves];
+	    openLevels(1);
+	    storage.extend(BTree.METADATA_Offset + (long) numNodes * nodeLength);
+	    try (DataInputStream separators = new DataInputStream(
+		    new BufferedInputStream(new FileInputStream(separatorFile), 1 << 16))) {
+		for (int leaf = 0; leaf < numSeparators; leaf++) {
+		    place(1, separators.readLong(), separators.readInt(), location(0, leaf));
+		}
+	    }
+	    int rootLocation = finish(1, location(0, numLeaves - 1));
+	    writeLeafParents();
+	    return rootLocation;
+	} finally {
+	    separatorFile.delete();
+	}
+    }
+
+    /**
+     * Writes a streamed leaf to the leaf buffer. Its parent pointer is written
+     * once the level above is loaded.
+     * 
+     * @param leaf    is the leaf
+     * @param numKeys is the number of keys of the leaf
+     * @throws IOException if the buffer cannot be written
+     */
+    private void writeLeaf(TreeNode leaf, int numKeys) throws IOException {
+	openNodes[0] = leaf;
+	openFilled[0] = numKeys;
+	completeNode(0);
+	lastLeafKeys[0] = lastLeafKeys[1];
+	lastLeafKeys[1] = numKeys;
+    }
+
+    /**
+     * Notes the location of a node just completed in the level above the streamed
+     * leaves as the parent of each of its children
+     * 
+     * @param node is the node of the level above the leaves
+     */
+    private void noteLeafParents(TreeNode node) {
+	for (int i = 0; i <= node.getCurrentNumKeys(); i++) {
+	    leafParents[(node.getChildPointer(i) - BTree.METADATA_Offset) / nodeLength] = node.getLocation();
+	}
+    }
+
+    /**
+     * Writes the parent pointers of the streamed leaves. The leaves are read back
+     * a level buffer at a time, their parent pointers set in the buffer and the
+     * buffer written again, so the pointers cost one sequential pass instead of a
+     * small write per leaf.
+     * 
+     * @throws IOException if the file cannot be read or written
+     */
+    private void writeLeafParents() throws IOException {
+	int numLeaves = levelNodes[0];
+	ByteBuffer buffer = levelBuffers[0];
+	int bufferNodes = buffer.capacity() / nodeLength;
+	for (int first = 0; first < numLeaves; first += bufferNodes) {
+	    int nodes = Math.min(bufferNodes, numLeaves - first);
+	    buffer.clear();
+	    buffer.limit(nodes * nodeLength);
+	    storage.read(buffer, location(0, first));
+	    for (int i = 0; i < nodes; i++) {
+		int leaf = first + i;
+		int numKeys = leaf == numLeaves - 1 ? lastLeafKeys[1]
+			: leaf == numLeaves - 2 ? lastLeafKeys[0] : nodeKeys;
+		buffer.putInt(i * nodeLength + NodeCodec.parentPointerOffset(numKeys, false), leafParents[leaf]);
+	    }
+	    buffer.flip();
+	    storage.write(buffer, location(0, first));
+	}
+	buffer.clear();
+    }
+
+    /**
+     * Sets a key of a node
+     * 
+     * @param node      is the node
+     * @param index     is the index of the key in the node
+     * @param key       is the binary key
+     * @param frequency is the frequency of the key
+     */
+    private static void setKey(TreeNode node, int index, long key, int frequency) {
+	node.setTreeKey(index, key);
+	node.setTreefrequency(index, frequency);
+	node.setNodeKeyCondition(index, 1);
+    }
+
+    /**
+     * Creates the open node and the buffer of each level from the first one
+     * 
+     * @param firstLevel is the first level to open
+     */
+    private void openLevels(int firstLevel) {
+	if (openNodes == null) {
+	    openNodes = new TreeNode[levelNodes.length];
+	    openIndex = new int[levelNodes.length];
+	    openFilled = new int[levelNodes.length];
+	    levelBuffers = new ByteBuffer[levelNodes.length];
+	    bufferFirstNode = new int[levelNodes.length];
+	}
+	int bufferNodes = Math.max(1, LEVEL_BUFFER_SIZE / nodeLength);
+	for (int level = firstLevel; level < numLevels; level++) {
+	    openNodes[level] = new TreeNode(degree);
+	    // a streamed level has no known number of nodes
+	    int nodes = levelNodes[level] > 0 ? Math.min(bufferNodes, levelNodes[level]) : bufferNodes;
+	    levelBuffers[level] = ByteBuffer.allocate(nodes * nodeLength);
+	}
+    }
+
+    /**
+     * Computes the number of nodes and keys of each level for the number of keys
+     * 
+     * @param numKeys is the number of keys of the BTree
+     */
+    private void computeShape(long numKeys) {
+	int maxLevels = 64;
+	levelNodes = new int[maxLevels];
+	levelFirstNode = new int[maxLevels];
+	levelBaseKeys = new int[maxLevels];
+	levelExtraKeys = new int[maxLevels];
+	numLevels = 0;
+	numNodes = 0;
+	addLevels(numKeys);
+    }
+
+    /**
+     * Adds the levels holding the keys on top of the levels computed so far, up
+     * to the root
+     * 
+     * @param numKeys is the number of keys of the lowest level added, with the
+     *                keys going further up
+     */
+    private void addLevels(long numKeys) {
+	long levelKeys = numKeys; // keys of the level, including the separators of the level above
+	int nodes;
+	do {
+	    nodes = levelNodeCount(levelKeys);
+	    long keysInNodes = levelKeys - (nodes - 1); // the others are separators
+	    levelNodes[numLevels] = nodes;
+	    levelFirstNode[numLevels] = numNodes;
+	    levelBaseKeys[numLevels] = (int) (keysInNodes / nodes);
+	    levelExtraKeys[numLevels] = (int) (keysInNodes % nodes);
+	    numNodes += nodes;
+	    numLevels++;
+	    levelKeys = nodes - 1;
+	} while (nodes > 1);
+    }
+
+    /**
+     * Returns the number of nodes of a level holding the keys. Each node but the
+     * root must hold between t-1 and 2t-1 keys, and each node except the last of
+     * the level is followed by a separator in the level above.
+     * 
+     * @param levelKeys is the number of keys of the level, with the separators
+     * @return the number of nodes of the level
+     */
+    private int levelNodeCount(long levelKeys) {
+	if (levelKeys <= nodeKeys) {
+	    return 1;
+	}
+	long nodesWithSeparator = levelKeys + 1; // each node but the last has a separator
+	long nodes = (nodesWithSeparator + nodeKeys) / (nodeKeys + 1); // ceiling, at fill factor
+	long fewest = (nodesWithSeparator + 2 * degree - 1) / (2 * degree); // ceiling, full nodes
+	long most = nodesWithSeparator / degree; // floor, half full nodes
+	nodes = Math.max(fewest, Math.min(most, nodes));
+	return (int) Math.max(1, nodes);
+    }
+
+    /**
+     * Returns the number of keys of a node
+     * 
+     * @param level is the level of the node
+     * @param index is the index of the node in its level
+     * @return the number of keys of the node
+     */
+    private int nodeKeyCount(int level, int index) {
+	return levelBaseKeys[level] + (index < levelExtraKeys[level] ? 1 : 0);
+    }
+
+    /**
+     * Returns the location of a node in the file
+     * 
+     * @param level is the level of the node
+     * @param index is the index of the node in its level
+     * @return the location of the node
+     */
+    private int location(int level, int index) {
+	return BTree.METADATA_Offset + (levelFirstNode[level] + index) * nodeLength;
+    }
+
+    /**
+     * Places the next key in the open node of the level, or, if that node is
+     * complete, writes the node and places the key in the level above.
+     * 
+     * @param level     is the level of the key
+     * @param key       is the binary key
+     * @param frequency is the frequency of the key
+     * @param leftChild is the location of the child before the key (internal
+     *                  levels only)
+     * @throws IOException if the node cannot be written
+     */
+    private void place(int level, long key, int frequency, int leftChild) throws IOException {
+	TreeNode node = openNodes[level];
+	int filled = openFilled[level];
+	if (level > 0) {
+	    node.setChildPointer(filled, leftChild);
+	}
+	if (filled < nodeKeyCount(level, openIndex[level])) {
+	    node.setTreeKey(filled, key);
+	    node.setTreefrequency(filled, frequency);
+	    node.setNodeKeyCondition(filled, 1);
+	    openFilled[level]++;
+	    return;
+	}
+	int location = completeNode(level);
+	place(level + 1, key, frequency, location);
+    }
+
+    /**
+     * Completes the open nodes of all the levels after the last key, from the
+     * first level up to the root.
+     * 
+     * @param firstLevel is the first level to complete, 0 for the leaves
+     * @param child      is the location of the last node of the level below the
+     *                   first level
+     * @return the location of the root
+     * @throws IOException if a node cannot be written
+     */
+    private int finish(int firstLevel, int child) throws IOException {
+	for (int level = firstLevel; level < numLevels; level++) {
+	    if (level > 0) {
+		openNodes[level].setChildPointer(openFilled[level], child);
+	    }
+	    if (openIndex[level] != levelNodes[level] - 1
+		    || openFilled[level] != nodeKeyCount(level, openIndex[level])) {
+		throw new IllegalStateException("Level " + level + " of the BTree is not complete");
+	    }
+	    child = completeNode(level);
+	    flushLevel(level);
+	}
+	return child;
+    }
+
+    /**
+     * Writes the open node of the level to the level buffer and opens the next
+     * node of the level.
+     * 
+     * @param level is the level of the node
+     * @return the location of the completed node
+     * @throws IOException if the buffer cannot be written
+     */
+    private int completeNode(int level) throws IOException {
+	TreeNode node = openNodes[level];
+	int location = location(level, openIndex[level]);
+	node.setLeaf(level == 0);
+	node.setCurrentNumKeys(openFilled[level]);
+	node.setLocation(location);
+	// the parent is the open node of the level above, the root has none
+	node.setParentPointer(level + 1 < numLevels ? location(level + 1, openIndex[level + 1]) : 0);
+	if (level == 1 && streamedLeaves) {
+	    noteLeafParents(node);
+	}
+
+	ByteBuffer buffer = levelBuffers[level];
+	if (!buffer.hasRemaining()) {
+	    flushLevel(level);
+	}
+	if (buffer.position() == 0) {
+	    bufferFirstNode[level] = openIndex[level];
+	}
+	NodeCodec.encode(node, buffer, nodeLength);
+	openIndex[level]++;
+	openFilled[level] = 0;
+	return location;
+    }
+
+    /**
+     * Writes the buffered nodes of the level to the file
+     * 
+     * @param level is the level
+     * @throws IOException if the file cannot be written
+     */
+    private void flushLevel(int level) throws IOException {
+	ByteBuffer buffer = levelBuffers[level];
+	if (buffer.position() > 0) {
+	    buffer.flip();
+	    storage.write(buffer, location(level, bufferFirstNode[level]));
+	    buffer.clear();
+	}
+    }
+
+    /**
+     * Returns the degree of the BTree
+     * 
+     * @return the degree of the BTree
+     */
+    public int getDegree() {
+	return degree;
+    }
+
+    /**
+     * Records in the meta_data whether the keys are canonical DNA sequences
+     * 
+     * @param canonical is true for canonical keys
+     */
+    public void setCanonical(boolean canonical) {
+	flags = canonical ? flags | BTree.CANONICAL_FLAG : flags & ~BTree.CANONICAL_FLAG;
+    }
+
+    /**
+     * Returns the number of nodes of the BTree
+     * 
+     * @return the number of nodes
+     */
+    public int getNumNodes() {
+	return numNodes;
+    }
+
+    /**
+     * Returns the number of levels of the BTree
+     * 
+     * @return the height of the BTree
+     */
+    public int getNumLevels() {
+	return numLevels;
+    }
+}
@@ -1,93 +1,106 @@
-import java.util.Arrays;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.NoSuchElementException;
 
 /**
  * BTreeCache class implements a cache for BTree. It is made of BTree TreeNodes.
  * 
+ * The nodes are indexed by their location in the file with a hash table of int
+ * keys, so finding a node takes constant time whatever the Cache size. Which
+ * node is removed when the Cache is full is decided by an EvictionPolicy (LRU,
+ * CLOCK, 2Q or ARC). The Cache counts its hits and misses so the policies can be
+ * compared on the same workload.
+ * 
  * @author Sajia Zafreen
  *
  */
 
-public class BTreeCache implements Iterable<TreeNode>{
+public class BTreeCache implements Iterable<TreeNode> {
 
-    private LinkedList<TreeNode> cacheLinkedList;
+    private LocationTable entries;
+    private EvictionPolicy policy;
     private int size;
+    private long hits;
+    private long misses;
+    private long evictions;
 
     /**
-     * Constructor: creates a Cache of BTree
-     */
-    public BTreeCache(int size) {
-	cacheLinkedList = new LinkedList<TreeNode>();
-	this.size = size;
-    }
-
-    /**
-     * Returns Cache Linked List
-     * 
-     * @return Cache Linked List
-     */
-    public LinkedList<TreeNode> getCacheLinkedList() {
-	return cacheLinkedList;
-    }
-
-    /**
-     * Sets Cache Linked List
-     * 
-     * @param cacheLinkedList
-     */
-    public void setCacheLinkedList(LinkedList<TreeNode> cacheLinkedList) {
-	this.cacheLinkedList = cacheLinkedList;
-    }
-
-    /**
-     * Add to the fronto of the Cache
+     * Constructor: creates a LRU Cache of BTree
      * 
-     * @param treeNode
-     */
-    public void addToFrontCache(TreeNode treeNode) {
-	this.cacheLinkedList.addFirst(treeNode);
-    }
-
-    /**
-     * Removes the last element in the Cache
+     * @param size is the maximum number of nodes in the Cache
      */
-    public TreeNode removeLastCache() {
-	return cacheLinkedList.removeLast();
+    public BTreeCache(int size) {
+	this(size, new LRUPolicy());
     }
 
     /**
-     * Removes the element in the index of the Cache
+     * Constructor: creates a Cache of BTree
      * 
-     * @param index is the index of the element to be removed
+     * @param size   is the maximum number of nodes in the Cache
+     * @param policy is the eviction policy of the Cache
      */
-    public void removeFromCache(int index) {
-	cacheLinkedList.remove(index);
+    public BTreeCache(int size, EvictionPolicy policy) {
+	this.size = size;
+	this.entries = new LocationTable(size);
+	this.policy = policy;
     }
 
     /**
-     * Removes the element from the Cache
+     * Creates the eviction policy of the given name
      * 
-     * @param element to be removed from the Cache
+     * @param name is lru, clock, 2q or arc
+     * @param size is the size of the Cache
+     * @return the eviction policy
+     * @throws IllegalArgumentException if there is no policy of this name
      */
-    public void removeFromCache(TreeNode element) {
-	cacheLinkedList.remove(element);
+    public static EvictionPolicy createPolicy(String name, int size) {
+	switch (name.toLowerCase()) {
+	case "lru":
+	    return new LRUPolicy();
+	case "clock":
+	    return new ClockPolicy();
+	case "2q":
+	    return new TwoQueuePolicy(size);
+	case "arc":
+	    return new ARCPolicy(size);
+	default:
+	    throw new IllegalArgumentException("Unknown cache policy " + name);
+	}
     }
 
     /**
-     * Returns the last element of the Cache
+     * Add to the front of the Cache. If a node of the same location is already in
+     * the Cache, it is replaced. If the Cache is full, the eviction policy removes
+     * a node to make room.
      * 
-     * @return the last element of the cache
+     * @param treeNode is the node to be added
+     * @return the node removed from the Cache, or null if the Cache was not full
      */
-    public TreeNode getLastCache() {
-	return cacheLinkedList.getLast();
+    public TreeNode addToFrontCache(TreeNode treeNode) {
+	CacheEntry entry = entries.get(treeNode.getLocation());
+	if (entry != null) {
+	    entry.setTreeNode(treeNode);
+	    policy.hit(entry);
+	    return null;
+	}
+	TreeNode removed = null;
+	if (cacheFull()) {
+	    CacheEntry victim = policy.evict(treeNode.getLocation());
+	    entries.remove(victim);
+	    evictions++;
+	    removed = victim.getTreeNode();
+	}
+	entry = new CacheEntry(treeNode);
+	entries.put(entry);
+	policy.add(entry);
+	return removed;
     }
 
     /**
      * Empties the Cache
      */
     public void clearCache() {
-	cacheLinkedList.clear();
+	entries.clear();
+	policy.clear();
     }
 
     /**
@@ -96,7 +109,7 @@ public class BTreeCache implements Iterable<TreeNode>{
      * @return true if Cache is full
      */
     public boolean cacheFull() {
-	return (cacheLinkedList.size() == size);
+	return (entries.size() == size);
     }
 
     /**
@@ -105,7 +118,7 @@ public class BTreeCache implements Iterable<TreeNode>{
      * @return true if the Cache is empty
      */
     public boolean emptyCache() {
-	return (cacheLinkedList.size() == 0);
+	return (entries.size() == 0);
     }
 
     /**
@@ -114,50 +127,138 @@ public class BTreeCache implements Iterable<TreeNode>{
      * @return the Cache size
      */
     public int cacheSize() {
-	return cacheLinkedList.size();
+	return entries.size();
     }
 
     /**
-     * Returns the TreeNode of given location
+     * Returns the TreeNode of given location. The access is counted as a hit or a
+     * miss of the Cache.
      * 
      * @param location of the TreeNode in the file
      * @return the TreeNode if it is in the Cache, else returns null
      */
     public TreeNode getCacheNode(int location) {
-	for (TreeNode cacheNode : cacheLinkedList) {
-	    if (cacheNode.getLocation() == location) {
-		return cacheNode;
-	    }
+	CacheEntry entry = entries.get(location);
+	if (entry == null) {
+	    misses++;
+	    return null;
 	}
-	return null;
+	hits++;
+	policy.hit(entry);
+	return entry.getTreeNode();
     }
-    
+
     /**
      * Removes the node with location , if the list doesn't have it returns null.
+     * 
      * @param location is the location of the tree node to be removed
      * @return the node removed
      */
     public TreeNode removeContains(int location) {
-        TreeNode returnNode = null;
-        TreeNode currNode;
-        for (Iterator<TreeNode> it = this.iterator(); it.hasNext();) {
-            currNode = it.next();
-            if (currNode.getLocation() == location) {
-                returnNode = currNode;
-                it.remove();
-                break;
-            }
-        }
-        return returnNode;
+	CacheEntry entry = entries.get(location);
+	if (entry == null) {
+	    return null;
+	}
+	entries.remove(entry);
+	policy.remove(entry);
+	return entry.getTreeNode();
+    }
+
+    /**
+     * Returns the eviction policy of the Cache
+     * 
+     * @return the eviction policy
+     */
+    public EvictionPolicy getPolicy() {
+	return policy;
+    }
+
+    /**
+     * Returns the number of nodes found in the Cache
+     * 
+     * @return the number of hits
+     */
+    public long getHits() {
+	return hits;
+    }
+
+    /**
+     * Returns the number of nodes not found in the Cache
+     * 
+     * @return the number of misses
+     */
+    public long getMisses() {
+	return misses;
+    }
+
+    /**
+     * Returns the number of nodes evicted from the Cache
+     * 
+     * @return the number of evictions
+     */
+    public long getEvictions() {
+	return evictions;
+    }
+
+    /**
+     * Returns the hit and miss counts of the Cache
+     * 
+     * @return the statistics of the Cache as a line of text
+     */
+    public String getStatistics() {
+	long accesses = hits + misses;
+	double ratio = (accesses == 0) ? 0 : 100.0 * hits / accesses;
+	return String.format("%s cache of %d nodes: %d hits, %d misses (%.2f%% hit ratio), %d evictions",
+		policy.getName(), size, hits, misses, ratio, evictions);
     }
 
     @Override
     public String toString() {
-	return Arrays.deepToString(cacheLinkedList.toArray());
+	StringBuilder cacheString = new StringBuilder("[");
+	for (TreeNode treeNode : this) {
+	    if (cacheString.length() > 1) {
+		cacheString.append(", ");
+	    }
+	    cacheString.append(treeNode);
+	}
+	return cacheString.append("]").toString();
     }
-    
+
+    /**
+     * Iterates over the nodes of the Cache in no particular order.
+     */
     @Override
-    public Iterator<TreeNode> iterator(){
-        return cacheLinkedList.iterator();
+    public Iterator<TreeNode> iterator() {
+	return new Iterator<TreeNode>() {
+	    private int bucket = -1;
+	    private CacheEntry nextEntry = advance(null);
+
+	    private CacheEntry advance(CacheEntry entry) {
+		if (entry != null && entry.hashNext != null) {
+		    return entry.hashNext;
+		}
+		while (++bucket < entries.numBuckets()) {
+		    if (entries.getBucket(bucket) != null) {
+			return entries.getBucket(bucket);
+		    }
+		}
+		return null;
+	    }
+
+	    @Override
+	    public boolean hasNext() {
+		return nextEntry != null;
+	    }
+
+	    @Override
+	    public TreeNode next() {
+		if (nextEntry == null) {
+		    throw new NoSuchElementException();
+		}
+		CacheEntry entry = nextEntry;
+		nextEntry = advance(entry);
+		return entry.getTreeNode();
+	    }
+	};
     }
 }
@@ -0,0 +1,115 @@
+import java.util.Arrays;
+
+/**
+ * BTreeCursor walks over the keys of a BTree, or of a subtree, in increasing
+ * order with an explicit stack of the nodes from the top to the current node,
+ * so a tree of any height is walked without recursion. Each key is given as a
+ * primitive key and frequency; nothing is allocated but the nodes read.
+ * 
+ * The nodes are read through bTree_Read, so they go through the Cache of the
+ * BTree. The BTree must not be changed while a cursor walks it.
+ * 
+ * @author Sajia Zafreen
+ */
+public class BTreeCursor {
+    private BTree bTree;
+    private TreeNode[] nodes = new TreeNode[16]; // the stack, nodes[0] is the top node
+    private int[] indexes = new int[16]; // the next key of each node of the stack
+    private int depth; // number of nodes on the stack
+    private long key;
+    private long highKey;
+    private int frequency;
+
+    /**
+     * Constructor of the BTreeCursor over the whole BTree
+     * 
+     * @param bTree is the BTree, its meta data read
+     */
+    public BTreeCursor(BTree bTree) {
+	this(bTree, bTree.getRootNode());
+    }
+
+    /**
+     * Constructor of the BTreeCursor over the subtree of a node
+     * 
+     * @param bTree is the BTree
+     * @param node  is the top node of the subtree
+     */
+    public BTreeCursor(BTree bTree, TreeNode node) {
+	this.bTree = bTree;
+	descend(node);
+    }
+
+    /**
+     * Pushes the node and the first child of each node down to the leftmost leaf
+     * 
+     * @param node is the node
+     */
+    private void descend(TreeNode node) {
+	while (true) {
+	    if (depth == nodes.length) {
+		nodes = Arrays.copyOf(nodes, 2 * depth);
+		indexes = Arrays.copyOf(indexes, 2 * depth);
+	    }
+	    nodes[depth] = node;
+	    indexes[depth] = 0;
+	    depth++;
+	    if (node.isLeaf()) {
+		return;
+	    }
+	    node = bTree.bTree_Read(node.getChildPointer(0));
+	}
+    }
+
+    /**
+     * Moves to the next key
+     * 
+     * @return false if there is no more key
+     */
+    public boolean next() {
+	while (depth > 0) {
+	    TreeNode node = nodes[depth - 1];
+	    int index = indexes[depth - 1];
+	    if (index < node.getCurrentNumKeys()) {
+		key = node.getTreeKey(index);
+		highKey = node.getTreeHighKey(index);
+		frequency = node.getTreefrequency(index);
+		indexes[depth - 1] = index + 1;
+		if (!node.isLeaf()) {
+		    // the keys after this one are in the child on its right
+		    descend(bTree.bTree_Read(node.getChildPointer(index + 1)));
+		}
+		return true;
+	    }
+	    nodes[--depth] = null;
+	}
+	return false;
+    }
+
+    /**
+     * Returns the current key
+     * 
+     * @return the binary key of the DNA sequence
+     */
+    public long getKey() {
+	return key;
+    }
+
+    /**
+     * Returns the high key of the current key, 0 if the keys are not 128-bit
+     * 
+     * @return the high key of the DNA sequence
+     */
+    public long getHighKey() {
+	return highKey;
+    }
+
+    /**
+     * Returns the frequency of the current key
+     * 
+     * @return the frequency
+     */
+    public int getFrequency() {
+	return frequency;
+    }
+}
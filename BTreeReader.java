@@ -0,0 +1,211 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BTreeReader is a read only handle of a BTree file which many threads can
+ * search at once. BTree keeps its state in instance fields, so it cannot be
+ * shared.
+ * 
+ * The reader has no file pointer: every node is read with a positional read of
+ * a FileChannelStorage, through a NodeCodec of the calling thread. The nodes
+ * are cached in a cache striped by location; each stripe is a BTreeCache with
+ * its own lock, so threads reading different nodes rarely wait for each other.
+ * A node is never changed once read, so it can be shared by the threads
+ * without a lock.
+ * 
+ * @author Sajia Zafreen
+ */
+public class BTreeReader implements Closeable {
+    private FileChannelStorage storage;
+    private int degree;
+    private int nodeLength;
+    private int rootLocation;
+    private int numNodes;
+    private int flags; // meta_data flags
+    private TreeNode rootNode;
+    private BTreeCache[] stripes; // null without a cache
+    private int cacheSize;
+    private ThreadLocal<NodeCodec> codecs; // a codec and its buffer per thread
+    private AtomicLong diskReads = new AtomicLong();
+
+    /**
+     * Constructor of the BTreeReader
+     * 
+     * @param fileName    is the BTree file
+     * @param cacheSize   is the size of the whole cache, 0 for no cache
+     * @param cachePolicy is the eviction policy of the cache
+     * @param numStripes  is the number of stripes of the cache
+     * @throws IOException if the file cannot be read
+     */
+    public BTreeReader(String fileName, int cacheSize, String cachePolicy, int numStripes) throws IOException {
+	storage = new FileChannelStorage(fileName, false);
+	ByteBuffer metaData = ByteBuffer.allocate(BTree.METADATA_Offset);
+	storage.read(metaData, 0);
+	metaData.flip();
+	rootLocation = metaData.getInt();
+	numNodes = metaData.getInt();
+	int degreeFlags = metaData.getInt();
+	degree = degreeFlags & BTree.DEGREE_MASK;
+	flags = degreeFlags & ~BTree.DEGREE_MASK;
+	boolean wideKeys = isWideKeys();
+	nodeLength = BTree.nodeLength(degree, wideKeys);
+	codecs = ThreadLocal.withInitial(() -> new NodeCodec(degree, wideKeys));
+	this.cacheSize = cacheSize;
+	if (cacheSize > 0) {
+	    // each stripe needs room for at least two nodes
+	    numStripes = Math.max(1, Math.min(numStripes, cacheSize / 2));
+	    stripes = new BTreeCache[numStripes];
+	    for (int i = 0; i < numStripes; i++) {
+		int stripeSize = cacheSize / numStripes + (i < cacheSize % numStripes ? 1 : 0);
+		stripes[i] = new BTreeCache(stripeSize, BTreeCache.createPolicy(cachePolicy, stripeSize));
+	    }
+	}
+	rootNode = readNode(rootLocation);
+    }
+
+    /**
+     * Returns the frequency of a key, as a 128-bit key with a high key of 0
+     * 
+     * @param binaryKey is the binary key of the DNA sequence
+     * @return the frequency, 0 if the key is not in the BTree
+     * @throws IOException if a node cannot be read
+     */
+    public int search(long binaryKey) throws IOException {
+	return search(0, binaryKey);
+    }
+
+    /**
+     * Returns the frequency of a 128-bit key
+     * 
+     * @param highKey   is the high key of the DNA sequence, 0 if the keys are not
+     *                  128-bit
+     * @param binaryKey is the binary key of the DNA sequence
+     * @return the frequency, 0 if the key is not in the BTree
+     * @throws IOException if a node cannot be read
+     */
+    public int search(long highKey, long binaryKey) throws IOException {
+	TreeNode node = rootNode;
+	while (true) {
+	    int index = node.findKey(highKey, binaryKey);
+	    if (index >= 0) {
+		return node.getTreefrequency(index);
+	    } else if (node.isLeaf()) {
+		return 0;
+	    }
+	    node = readNode(node.getChildPointer(-(index + 1)));
+	}
+    }
+
+    /**
+     * Reads a node from the cache, or from the file
+     * 
+     * @param location is the location of the node
+     * @return the node
+     * @throws IOException if the node cannot be read
+     */
+    public TreeNode readNode(int location) throws IOException {
+	BTreeCache stripe = null;
+	if (stripes != null) {
+	    stripe = stripes[(location / nodeLength) % stripes.length];
+	    synchronized (stripe) {
+		TreeNode node = stripe.getCacheNode(location);
+		if (node != null) {
+		    return node;
+		}
+	    }
+	}
+	TreeNode node = codecs.get().read(storage, location);
+	diskReads.incrementAndGet();
+	if (stripe != null) {
+	    synchronized (stripe) {
+		stripe.addToFrontCache(node);
+	    }
+	}
+	return node;
+    }
+
+    /**
+     * Returns the root node
+     * 
+     * @return the root node
+     */
+    public TreeNode getRootNode() {
+	return rootNode;
+    }
+
+    /**
+     * Returns the degree of the BTree
+     * 
+     * @return the degree
+     */
+    public int getDegree() {
+	return degree;
+    }
+
+    /**
+     * Returns true if the keys of the BTree are canonical DNA sequences
+     * 
+     * @return true for canonical keys
+     */
+    public boolean isCanonical() {
+	return (flags & BTree.CANONICAL_FLAG) != 0;
+    }
+
+    /**
+     * Returns true if the keys of the BTree are 128-bit
+     * 
+     * @return true for 128-bit keys
+     */
+    public boolean isWideKeys() {
+	return (flags & BTree.WIDE_KEYS_FLAG) != 0;
+    }
+
+    /**
+     * Returns the number of nodes of the BTree
+     * 
+     * @return the number of nodes
+     */
+    public int getNumNodes() {
+	return numNodes;
+    }
+
+    /**
+     * Returns the number of nodes read from the file by all the threads
+     * 
+     * @return the number of node reads
+     */
+    public long getDiskReads() {
+	return diskReads.get();
+    }
+
+    /**
+     * Returns the statistics of the cache, the stripes added up
+     * 
+     * @return the statistics as a line of text, or null without a cache
+     */
+    public String getCacheStatistics() {
+	if (stripes == null) {
+	    return null;
+	}
+	long hits = 0;
+	long misses = 0;
+	long evictions = 0;
+	for (BTreeCache stripe : stripes) {
+	    synchronized (stripe) {
+		hits += stripe.getHits();
+		misses += stripe.getMisses();
+		evictions += stripe.getEvictions();
+	    }
+	}
+	return String.format("%s cache of %d nodes in %d stripes: %d hits, %d misses (%.2f%% hit ratio), %d evictions",
+		stripes[0].getPolicy().getName(), cacheSize, stripes.length, hits, misses,
+		(hits + misses == 0) ? 0.0 : 100.0 * hits / (hits + misses), evictions);
+    }
+
+    @Override
+    public void close() throws IOException {
+	storage.close();
+    }
+}
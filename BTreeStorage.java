@@ -0,0 +1,93 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * BTreeStorage is the file under a BTree. The BTree reads and writes its nodes
+ * and meta data at byte positions through this interface only, so the same
+ * BTree runs on any backend:
+ * 
+ * raf: a RandomAccessFile, every read or write is a seek and a read or write.
+ * channel: a FileChannel, every read or write is one positional call, and runs
+ * of adjacent nodes are written with one gathering write.
+ * 
+ * @author Sajia Zafreen
+ */
+public interface BTreeStorage extends Closeable {
+    String DEFAULT_STORAGE = "channel"; // the backend of a BTree opened by file name
+
+    /**
+     * Reads from the position until the buffer is full or the file ends
+     * 
+     * @param buffer   is the buffer to fill from its position
+     * @param position is the position of the first byte in the file
+     * @return the number of bytes read
+     * @throws IOException if the file cannot be read
+     */
+    int read(ByteBuffer buffer, long position) throws IOException;
+
+    /**
+     * Writes the remaining bytes of the buffer at the position
+     * 
+     * @param buffer   is the buffer to write from its position
+     * @param position is the position of the first byte in the file
+     * @throws IOException if the file cannot be written
+     */
+    void write(ByteBuffer buffer, long position) throws IOException;
+
+    /**
+     * Writes the remaining bytes of the buffers one after the other from the
+     * position, as if they were one buffer
+     * 
+     * @param buffers  are the buffers, in file order
+     * @param offset   is the index of the first buffer to write
+     * @param length   is the number of buffers to write
+     * @param position is the position of the first byte in the file
+     * @throws IOException if the file cannot be written
+     */
+    void write(ByteBuffer[] buffers, int offset, int length, long position) throws IOException;
+
+    /**
+     * Returns the length of the file
+     * 
+     * @return the length in bytes
+     * @throws IOException if the length cannot be read
+     */
+    long length() throws IOException;
+
+    /**
+     * Extends the file to the length
+     * 
+     * @param length is the new length in bytes
+     * @throws IOException if the file cannot be extended
+     */
+    void extend(long length) throws IOException;
+
+    /**
+     * Returns the name of the backend
+     * 
+     * @return the name
+     */
+    String getName();
+
+    /**
+     * Opens a BTree file on a backend
+     * 
+     * @param fileName is the BTree file
+     * @param write    is true to create or update the file, false to read it only
+     * @param backend  is the name of the backend: raf or channel
+     * @return the storage
+     * @throws IOException              if the file cannot be opened
+     * @throws IllegalArgumentException if there is no backend of this name
+     */
+    static BTreeStorage open(String fileName, boolean write, String backend) throws IOException {
+	switch (backend.toLowerCase()) {
+	case "raf":
+	    return new RandomAccessFileStorage(fileName, write);
+	case "channel":
+	    return new FileChannelStorage(fileName, write);
+	default:
+	    throw new IllegalArgumentException("Unknown storage " + backend);
+	}
+    }
+}
@@ -1,40 +1,344 @@
+import java.util.Arrays;
+
 /**
  * BinaryFormat class encodes a (long) object to a binary sequence or decodes a
  * binary sequence to a string.
  * 
+ * The bases are encoded and decoded through lookup tables of 256 entries: one
+ * gives the 2-bit code of each character, the other the four bases of each byte
+ * of a key. Encoding takes four characters per step and decoding four bases per
+ * step, straight from and into arrays, so no String is built on the way.
+ * 
+ * A DNA sequence longer than 31 has a 128-bit key of two longs: the binary key
+ * holds its last 32 bases and the high key the bases before them. Such keys are
+ * compared as unsigned 128-bit numbers.
+ * 
  * @author Sajia Zafreen
  */
 public class BinaryFormat {
+    static final int MAX_LONG_LENGTH = 31; // longest DNA sequence with a 64-bit key
+    static final int MAX_LENGTH = 63; // longest DNA sequence with a 128-bit key
+    private static final byte[] BASE_CODES = new byte[256]; // 2-bit code of a character, -1 if not a base
+    private static final char[] BASE_CHARS = { 'a', 'c', 'g', 't' }; // by 2-bit code
+    private static final char[] BYTE_CHARS = new char[4 * 256]; // the four bases of each byte
+    private static final byte[] BYTE_BYTES = new byte[4 * 256]; // the same as ASCII bytes
+
+    static {
+	Arrays.fill(BASE_CODES, (byte) -1);
+	for (int code = 0; code < 4; code++) {
+	    // A and T are pairs
+	    BASE_CODES[BASE_CHARS[code]] = (byte) code;
+	    BASE_CODES[Character.toUpperCase(BASE_CHARS[code])] = (byte) code;
+	}
+	for (int value = 0; value < 256; value++) {
+	    for (int i = 0; i < 4; i++) {
+		char base = BASE_CHARS[(value >>> (6 - 2 * i)) & 3];
+		BYTE_CHARS[4 * value + i] = base;
+		BYTE_BYTES[4 * value + i] = (byte) base;
+	    }
+	}
+    }
 
     /**
      * Produces a binary sequence presented as a long value from an object.
      * 
      * @param object is the object to be encoded to a binary sequence
      * @return the binary sequence
+     * @throws NumberFormatException if the object has no base or too many
      */
     public static long stringBinaryLong(Object object) {
 	String subString = object.toString();
-	String upperCaseString = subString.toUpperCase();
-	String binaryString = "";
-	for (int i = 0; i < upperCaseString.length(); i++) {
-	    switch (upperCaseString.charAt(i)) {
-	    // A and T are pairs
-	    case 'A':
-		binaryString = binaryString + "00";
-		break;
-	    case 'T':
-		binaryString = binaryString + "11";
-		break;
-	    case 'C':
-		binaryString = binaryString + "01";
-		break;
-	    case 'G':
-		binaryString = binaryString + "10";
-		break;
+	return encode(subString, 0, subString.length());
+    }
+
+    /**
+     * Encodes the bases of a slice of characters to a binary key. Characters
+     * which are not A, T, C or G (in upper or lower case) are skipped.
+     * 
+     * @param bases  are the characters
+     * @param offset is the index of the first character
+     * @param length is the number of characters
+     * @return the binary key
+     * @throws NumberFormatException if the slice has no base, or its key does not
+     *                               fit in 63 bits
+     */
+    public static long encode(CharSequence bases, int offset, int length) {
+	long key = 0;
+	int numBases = 0;
+	int i = offset;
+	int end = offset + length;
+	for (; i + 4 <= end; i += 4) {
+	    int code0 = code(bases.charAt(i));
+	    int code1 = code(bases.charAt(i + 1));
+	    int code2 = code(bases.charAt(i + 2));
+	    int code3 = code(bases.charAt(i + 3));
+	    if ((code0 | code1 | code2 | code3) < 0) {
+		// some character is not a base, take the four one by one
+		for (int j = i; j < i + 4; j++) {
+		    int code = code(bases.charAt(j));
+		    if (code >= 0) {
+			key = shift(key, 2) | code;
+			numBases++;
+		    }
+		}
+	    } else {
+		key = shift(key, 8) | (code0 << 6) | (code1 << 4) | (code2 << 2) | code3;
+		numBases += 4;
+	    }
+	}
+	for (; i < end; i++) {
+	    int code = code(bases.charAt(i));
+	    if (code >= 0) {
+		key = shift(key, 2) | code;
+		numBases++;
 	    }
 	}
-	long binaryLong = Long.parseLong(binaryString, 2);
-	return binaryLong;
+	if (numBases == 0) {
+	    throw new NumberFormatException("No base in \"" + bases.subSequence(offset, end) + "\"");
+	}
+	return key;
+    }
+
+    /**
+     * Encodes the bases of a slice of ASCII bytes to a binary key, as
+     * encode(CharSequence, int, int)
+     * 
+     * @param bases  are the bytes
+     * @param offset is the index of the first byte
+     * @param length is the number of bytes
+     * @return the binary key
+     * @throws NumberFormatException if the slice has no base, or its key does not
+     *                               fit in 63 bits
+     */
+    public static long encode(byte[] bases, int offset, int length) {
+	long key = 0;
+	int numBases = 0;
+	int i = offset;
+	int end = offset + length;
+	for (; i + 4 <= end; i += 4) {
+	    int code0 = BASE_CODES[bases[i] & 0xFF];
+	    int code1 = BASE_CODES[bases[i + 1] & 0xFF];
+	    int code2 = BASE_CODES[bases[i + 2] & 0xFF];
+	    int code3 = BASE_CODES[bases[i + 3] & 0xFF];
+	    if ((code0 | code1 | code2 | code3) < 0) {
+		for (int j = i; j < i + 4; j++) {
+		    int code = BASE_CODES[bases[j] & 0xFF];
+		    if (code >= 0) {
+			key = shift(key, 2) | code;
+			numBases++;
+		    }
+		}
+	    } else {
+		key = shift(key, 8) | (code0 << 6) | (code1 << 4) | (code2 << 2) | code3;
+		numBases += 4;
+	    }
+	}
+	for (; i < end; i++) {
+	    int code = BASE_CODES[bases[i] & 0xFF];
+	    if (code >= 0) {
+		key = shift(key, 2) | code;
+		numBases++;
+	    }
+	}
+	if (numBases == 0) {
+	    throw new NumberFormatException("No base in " + length + " bytes");
+	}
+	return key;
+    }
+
+    /**
+     * Encodes the bases of a slice of characters to a 128-bit key, as
+     * encode(CharSequence, int, int)
+     * 
+     * @param bases  are the characters
+     * @param offset is the index of the first character
+     * @param length is the number of characters
+     * @param key    receives the high key at index 0 and the binary key at index 1
+     * @throws NumberFormatException if the slice has no base or more than 64
+     */
+    public static void encode(CharSequence bases, int offset, int length, long[] key) {
+	long highKey = 0;
+	long binaryKey = 0;
+	int numBases = 0;
+	for (int i = offset; i < offset + length; i++) {
+	    int code = code(bases.charAt(i));
+	    if (code >= 0) {
+		if (numBases++ == 64) {
+		    throw new NumberFormatException("Too many bases for a binary key");
+		}
+		highKey = (highKey << 2) | (binaryKey >>> 62);
+		binaryKey = (binaryKey << 2) | code;
+	    }
+	}
+	if (numBases == 0) {
+	    throw new NumberFormatException("No base in \"" + bases.subSequence(offset, offset + length) + "\"");
+	}
+	key[0] = highKey;
+	key[1] = binaryKey;
+    }
+
+    /**
+     * Compares two 128-bit keys as unsigned numbers
+     * 
+     * @param highKey1 is the high key of the first key
+     * @param key1     is the binary key of the first key
+     * @param highKey2 is the high key of the second key
+     * @param key2     is the binary key of the second key
+     * @return a negative number, zero or a positive number as the first key is
+     *         less than, equal to or greater than the second
+     */
+    public static int compareKeys(long highKey1, long key1, long highKey2, long key2) {
+	if (highKey1 != highKey2) {
+	    return Long.compareUnsigned(highKey1, highKey2);
+	}
+	return Long.compareUnsigned(key1, key2);
+    }
+
+    /**
+     * Returns the number of bases of a sequence of characters, the characters
+     * which encode() does not skip
+     * 
+     * @param bases are the characters
+     * @return the number of A, T, C and G (in upper or lower case)
+     */
+    public static int countBases(CharSequence bases) {
+	int numBases = 0;
+	for (int i = 0; i < bases.length(); i++) {
+	    if (code(bases.charAt(i)) >= 0) {
+		numBases++;
+	    }
+	}
+	return numBases;
+    }
+
+    /**
+     * Returns the 2-bit code of a character
+     * 
+     * @param c is the character
+     * @return the code, -1 if the character is not a base
+     */
+    private static int code(char c) {
+	return c < 256 ? BASE_CODES[c] : -1;
+    }
+
+    /**
+     * Shifts a key left to make room for more bases
+     * 
+     * @param key  is the binary key
+     * @param bits is the number of bits to shift
+     * @return the shifted key
+     * @throws NumberFormatException if the shifted key does not fit in 63 bits
+     */
+    private static long shift(long key, int bits) {
+	if ((key >>> (63 - bits)) != 0) {
+	    throw new NumberFormatException("Too many bases for a binary key");
+	}
+	return key << bits;
+    }
+
+    /**
+     * Returns the smallest binary key of length length starting with the prefix:
+     * the prefix followed by A's
+     * 
+     * @param prefix is the prefix DNA sequence, at most length long
+     * @param length is the length of the DNA sequence
+     * @return the first binary key of the prefix range
+     */
+    public static long prefixLow(String prefix, int length) {
+	long prefixKey = prefix.isEmpty() ? 0 : stringBinaryLong(prefix);
+	return prefixKey << (2 * (length - prefix.length()));
+    }
+
+    /**
+     * Returns the largest binary key of length length starting with the prefix:
+     * the prefix followed by T's
+     * 
+     * @param prefix is the prefix DNA sequence, at most length long
+     * @param length is the length of the DNA sequence
+     * @return the last binary key of the prefix range
+     */
+    public static long prefixHigh(String prefix, int length) {
+	return prefixLow(prefix, length) | ((1L << (2 * (length - prefix.length()))) - 1);
+    }
+
+    /**
+     * Returns the binary key of the reverse complement of a DNA sequence. As A and
+     * T, and C and G, are pairs, the complement of a base is its code XOR 11.
+     * 
+     * @param value  is the binary key of the DNA sequence
+     * @param length is the length of the DNA sequence
+     * @return the binary key of the reverse complement
+     */
+    public static long reverseComplement(long value, int length) {
+	return reverseComplement(value) >>> (64 - 2 * length);
+    }
+
+    /**
+     * Returns the reverse complement of the 32 bases of a long
+     * 
+     * @param value holds 32 bases
+     * @return the reverse complement of the 32 bases
+     */
+    private static long reverseComplement(long value) {
+	long reverse = Long.reverse(~value);
+	// Long.reverse also swapped the two bits of each base, swap them back
+	return ((reverse >>> 1) & 0x5555555555555555L) | ((reverse & 0x5555555555555555L) << 1);
+    }
+
+    /**
+     * Returns the 128-bit key of the reverse complement of a DNA sequence
+     * 
+     * @param highKey is the high key of the DNA sequence
+     * @param value   is the binary key of the DNA sequence
+     * @param length  is the length of the DNA sequence, between 32 and 63
+     * @param key     receives the high key at index 0 and the binary key at index
+     *                1 of the reverse complement
+     */
+    public static void reverseComplement(long highKey, long value, int length, long[] key) {
+	// the reverse complement of all the 64 bases of the two longs, then
+	// shifted down to the length
+	long reverseHigh = reverseComplement(value);
+	long reverseLow = reverseComplement(highKey);
+	int shift = 128 - 2 * length;
+	if (shift >= 64) {
+	    key[0] = 0;
+	    key[1] = reverseHigh >>> (shift - 64);
+	} else if (shift > 0) {
+	    key[0] = reverseHigh >>> shift;
+	    key[1] = (reverseLow >>> shift) | (reverseHigh << (64 - shift));
+	} else {
+	    key[0] = reverseHigh;
+	    key[1] = reverseLow;
+	}
+    }
+
+    /**
+     * Returns the canonical binary key of a DNA sequence: the smaller of its key
+     * and the key of its reverse complement, the same for both strands
+     * 
+     * @param value  is the binary key of the DNA sequence
+     * @param length is the length of the DNA sequence
+     * @return the canonical binary key
+     */
+    public static long canonical(long value, int length) {
+	return Math.min(value, reverseComplement(value, length));
+    }
+
+    /**
+     * Returns the canonical 128-bit key of a DNA sequence, as canonical(long, int)
+     * 
+     * @param highKey is the high key of the DNA sequence
+     * @param value   is the binary key of the DNA sequence
+     * @param length  is the length of the DNA sequence, between 32 and 63
+     * @param key     receives the high key at index 0 and the binary key at index
+     *                1 of the canonical key
+     */
+    public static void canonical(long highKey, long value, int length, long[] key) {
+	reverseComplement(highKey, value, length, key);
+	if (compareKeys(highKey, value, key[0], key[1]) < 0) {
+	    key[0] = highKey;
+	    key[1] = value;
+	}
     }
 
     /**
@@ -45,32 +349,106 @@ public class BinaryFormat {
      * @return the string representation of the binary sequence of the long value
      */
     public static String longBinaryString(long value, int length) {
-	String dnaString = "";
-	String binaryString = Long.toBinaryString(value);
-	if (binaryString.length() < length * 2) {
-	    String leadingZero = "";
-	    for (int i = 0; i < length * 2 - binaryString.length(); i++) {
-		leadingZero = "0" + leadingZero;
-	    }
-	    binaryString = leadingZero + binaryString;
-	}
-	String[] arrayString = binaryString.split("(?<=\\G.{2})");
-	for (int i = 0; i < arrayString.length; i++) {
-	    switch (arrayString[i]) {
-	    case "00":
-		dnaString = dnaString + "A";
-		break;
-	    case "11":
-		dnaString = dnaString + "T";
-		break;
-	    case "01":
-		dnaString = dnaString + "C";
-		break;
-	    case "10":
-		dnaString = dnaString + "G";
-		break;
-	    }
+	char[] dnaString = new char[length];
+	decode(value, length, dnaString, 0);
+	return new String(dnaString);
+    }
+
+    /**
+     * Produces a string from a 128-bit key
+     * 
+     * @param highKey is the high key of the DNA sequence, 0 if it is not longer
+     *                than 32
+     * @param value   is the binary key of the DNA sequence
+     * @param length  is the length of the DNA sequence
+     * @return the DNA sequence in lower case
+     */
+    public static String longBinaryString(long highKey, long value, int length) {
+	char[] dnaString = new char[length];
+	decode(highKey, value, length, dnaString, 0);
+	return new String(dnaString);
+    }
+
+    /**
+     * Decodes a 128-bit key to its bases in lower case: the last 32 bases from the
+     * binary key, the bases before them from the high key
+     * 
+     * @param highKey is the high key of the DNA sequence
+     * @param value   is the binary key of the DNA sequence
+     * @param length  is the length of the DNA sequence
+     * @param out     is the array receiving the bases
+     * @param offset  is the index in out of the first base
+     */
+    public static void decode(long highKey, long value, int length, char[] out, int offset) {
+	if (length <= 32) {
+	    decode(value, length, out, offset);
+	} else {
+	    decode(value, 32, out, offset + length - 32);
+	    decode(highKey, length - 32, out, offset);
+	}
+    }
+
+    /**
+     * Decodes a 128-bit key to its bases as lower case ASCII bytes, as
+     * decode(long, long, int, char[], int)
+     * 
+     * @param highKey is the high key of the DNA sequence
+     * @param value   is the binary key of the DNA sequence
+     * @param length  is the length of the DNA sequence
+     * @param out     is the array receiving the bases
+     * @param offset  is the index in out of the first base
+     */
+    public static void decode(long highKey, long value, int length, byte[] out, int offset) {
+	if (length <= 32) {
+	    decode(value, length, out, offset);
+	} else {
+	    decode(value, 32, out, offset + length - 32);
+	    decode(highKey, length - 32, out, offset);
+	}
+    }
+
+    /**
+     * Decodes a binary key to its bases in lower case, four bases per step
+     * 
+     * @param value  is the binary key
+     * @param length is the length of the DNA sequence
+     * @param out    is the array receiving the bases
+     * @param offset is the index in out of the first base
+     */
+    public static void decode(long value, int length, char[] out, int offset) {
+	int position = offset + length;
+	for (; position - offset >= 4; value >>>= 8) {
+	    int index = 4 * ((int) value & 0xFF);
+	    out[--position] = BYTE_CHARS[index + 3];
+	    out[--position] = BYTE_CHARS[index + 2];
+	    out[--position] = BYTE_CHARS[index + 1];
+	    out[--position] = BYTE_CHARS[index];
+	}
+	for (; position > offset; value >>>= 2) {
+	    out[--position] = BASE_CHARS[(int) value & 3];
+	}
+    }
+
+    /**
+     * Decodes a binary key to its bases as lower case ASCII bytes, as
+     * decode(long, int, char[], int)
+     * 
+     * @param value  is the binary key
+     * @param length is the length of the DNA sequence
+     * @param out    is the array receiving the bases
+     * @param offset is the index in out of the first base
+     */
+    public static void decode(long value, int length, byte[] out, int offset) {
+	int position = offset + length;
+	for (; position - offset >= 4; value >>>= 8) {
+	    int index = 4 * ((int) value & 0xFF);
+	    out[--position] = BYTE_BYTES[index + 3];
+	    out[--position] = BYTE_BYTES[index + 2];
+	    out[--position] = BYTE_BYTES[index + 1];
+	    out[--position] = BYTE_BYTES[index];
+	}
+	for (; position > offset; value >>>= 2) {
+	    out[--position] = (byte) BASE_CHARS[(int) value & 3];
 	}
-	return dnaString.toLowerCase();
     }
 }
@@ -0,0 +1,179 @@
+import java.util.Random;
+
+/**
+ * BinaryFormatBenchmark measures the time to encode DNA strings to binary keys
+ * and to decode binary keys to DNA strings, with the former string building
+ * implementation of BinaryFormat, with the String wrappers over the lookup
+ * tables, and with the lookup tables straight on arrays. Each row gives the
+ * speedup over the former implementation.
+ * 
+ * @author Sajia Zafreen
+ */
+public class BinaryFormatBenchmark {
+    private static final int NUM_KEYS = 4096; // distinct keys cycled over
+
+    /**
+     * Main method
+     * 
+     * @param args are the length of the DNA sequences and the number of
+     *             operations per round
+     */
+    public static void main(String[] args) {
+	int length = 31;
+	int operations = 2000000;
+	try {
+	    if (args.length > 0) {
+		length = Integer.parseInt(args[0]);
+	    }
+	    if (args.length > 1) {
+		operations = Integer.parseInt(args[1]);
+	    }
+	    if (length < 1 || length > 31) {
+		throw new NumberFormatException("Bad length " + length);
+	    }
+	} catch (NumberFormatException e) {
+	    System.err.println("Usage: java BinaryFormatBenchmark [<sequence length 1-31>] [<operations>]");
+	    System.exit(1);
+	}
+
+	Random random = new Random(42);
+	long[] keys = new long[NUM_KEYS];
+	String[] strings = new String[NUM_KEYS];
+	byte[][] bytes = new byte[NUM_KEYS][];
+	for (int i = 0; i < NUM_KEYS; i++) {
+	    keys[i] = random.nextLong() & ((1L << (2 * length)) - 1);
+	    strings[i] = oldLongBinaryString(keys[i], length);
+	    bytes[i] = strings[i].getBytes();
+	    if (BinaryFormat.stringBinaryLong(strings[i]) != keys[i]
+		    || !BinaryFormat.longBinaryString(keys[i], length).equals(strings[i])) {
+		System.err.println("The lookup tables differ from the former implementation on " + strings[i]);
+		System.exit(1);
+	    }
+	}
+	char[] chars = new char[length];
+
+	System.out.println("Sequence length " + length + ", " + operations + " operations per round.");
+	for (int round = 0; round < 3; round++) { // the first rounds warm up the JIT
+	    System.out.println("Round " + (round + 1) + ":");
+	    long checksum = 0;
+	    long start = System.nanoTime();
+	    for (int i = 0; i < operations; i++) {
+		checksum += oldStringBinaryLong(strings[i % NUM_KEYS]);
+	    }
+	    long base = System.nanoTime() - start;
+	    report("encode, former", operations, base, base);
+
+	    start = System.nanoTime();
+	    for (int i = 0; i < operations; i++) {
+		checksum -= BinaryFormat.stringBinaryLong(strings[i % NUM_KEYS]);
+	    }
+	    report("encode, String wrapper", operations, System.nanoTime() - start, base);
+
+	    start = System.nanoTime();
+	    for (int i = 0; i < operations; i++) {
+		byte[] sequence = bytes[i % NUM_KEYS];
+		checksum += BinaryFormat.encode(sequence, 0, sequence.length);
+	    }
+	    report("encode, byte[] slice", operations, System.nanoTime() - start, base);
+
+	    start = System.nanoTime();
+	    for (int i = 0; i < operations; i++) {
+		checksum += oldLongBinaryString(keys[i % NUM_KEYS], length).charAt(0);
+	    }
+	    base = System.nanoTime() - start;
+	    report("decode, former", operations, base, base);
+
+	    start = System.nanoTime();
+	    for (int i = 0; i < operations; i++) {
+		checksum -= BinaryFormat.longBinaryString(keys[i % NUM_KEYS], length).charAt(0);
+	    }
+	    report("decode, String wrapper", operations, System.nanoTime() - start, base);
+
+	    start = System.nanoTime();
+	    for (int i = 0; i < operations; i++) {
+		BinaryFormat.decode(keys[i % NUM_KEYS], length, chars, 0);
+		checksum += chars[0];
+	    }
+	    report("decode, char[]", operations, System.nanoTime() - start, base);
+	    System.out.println("  (checksum " + checksum + ")");
+	}
+    }
+
+    /**
+     * Prints the time per operation of a benchmark and its speedup
+     * 
+     * @param name       is the name of the benchmark
+     * @param operations is the number of operations
+     * @param time       is the time of the benchmark in nanoseconds
+     * @param base       is the time of the former implementation in nanoseconds
+     */
+    private static void report(String name, int operations, long time, long base) {
+	System.out.println(String.format("  %-24s %8.1f ns/op %8.1fx", name, (double) time / operations,
+		(double) base / time));
+    }
+
+    /**
+     * The former BinaryFormat.stringBinaryLong, kept to compare against
+     * 
+     * @param object is the object to be encoded to a binary sequence
+     * @return the binary sequence
+     */
+    private static long oldStringBinaryLong(Object object) {
+	String upperCaseString = object.toString().toUpperCase();
+	String binaryString = "";
+	for (int i = 0; i < upperCaseString.length(); i++) {
+	    switch (upperCaseString.charAt(i)) {
+	    case 'A':
+		binaryString = binaryString + "00";
+		break;
+	    case 'T':
+		binaryString = binaryString + "11";
+		break;
+	    case 'C':
+		binaryString = binaryString + "01";
+		break;
+	    case 'G':
+		binaryString = binaryString + "10";
+		break;
+	    }
+	}
+	return Long.parseLong(binaryString, 2);
+    }
+
+    /**
+     * The former BinaryFormat.longBinaryString, kept to compare against
+     * 
+     * @param value  is the long value of the binary sequence
+     * @param length is the length of the DNA sequence.
+     * @return the string representation of the binary sequence of the long value
+     */
+    private static String oldLongBinaryString(long value, int length) {
+	String dnaString = "";
+	String binaryString = Long.toBinaryString(value);
+	if (binaryString.length() < length * 2) {
+	    String leadingZero = "";
+	    for (int i = 0; i < length * 2 - binaryString.length(); i++) {
+		leadingZero = "0" + leadingZero;
+	    }
+	    binaryString = leadingZero + binaryString;
+	}
+	String[] arrayString = binaryString.split("(?<=\\G.{2})");
+	for (int i = 0; i < arrayString.length; i++) {
+	    switch (arrayString[i]) {
+	    case "00":
+		dnaString = dnaString + "A";
+		break;
+	    case "11":
+		dnaString = dnaString + "T";
+		break;
+	    case "01":
+		dnaString = dnaString + "C";
+		break;
+	    case "10":
+		dnaString = dnaString + "G";
+		break;
+	    }
+	}
+	return dnaString.toLowerCase();
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * CacheEntry holds one TreeNode of the BTreeCache. The entry is intrusive: it
+ * carries the links of its list and of its hash bucket itself, so the cache and
+ * its eviction policy can find, move and remove an entry without any search.
+ * 
+ * An entry without a TreeNode is a ghost: an eviction policy remembers with it
+ * the location of a node which was evicted recently.
+ * 
+ * @author Sajia Zafreen
+ */
+public class CacheEntry {
+    private int location; // location of the node in the file, the key of the entry
+    private TreeNode treeNode;
+    CacheEntry previous; // list of the entry
+    CacheEntry next;
+    CacheEntry hashNext; // bucket chain
+    int queue; // list of the eviction policy holding this entry
+    boolean referenced; // reference bit of the CLOCK policy
+
+    /**
+     * Constructor of the CacheEntry
+     * 
+     * @param treeNode is the cached tree node
+     */
+    public CacheEntry(TreeNode treeNode) {
+	this.location = treeNode.getLocation();
+	this.treeNode = treeNode;
+    }
+
+    /**
+     * Constructor of a ghost CacheEntry
+     * 
+     * @param location is the location of the evicted node in the file
+     */
+    public CacheEntry(int location) {
+	this.location = location;
+	this.treeNode = null;
+    }
+
+    /**
+     * Returns the location of the cached node in the file
+     * 
+     * @return the location of the node
+     */
+    public int getLocation() {
+	return location;
+    }
+
+    /**
+     * Returns the cached tree node
+     * 
+     * @return the cached tree node, null for a ghost entry
+     */
+    public TreeNode getTreeNode() {
+	return treeNode;
+    }
+
+    /**
+     * Sets the cached tree node
+     * 
+     * @param treeNode is the tree node at the location of this entry
+     */
+    public void setTreeNode(TreeNode treeNode) {
+	this.treeNode = treeNode;
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * CacheList is a doubly linked list of CacheEntries linked through the entries
+ * themselves. The first entry is the most recently added one.
+ * 
+ * @author Sajia Zafreen
+ */
+public class CacheList {
+    private CacheEntry head;
+    private CacheEntry tail;
+    private int size;
+
+    /**
+     * Adds the entry at the front of the list
+     * 
+     * @param entry is the entry to be added
+     */
+    public void linkFirst(CacheEntry entry) {
+	entry.previous = null;
+	entry.next = head;
+	if (head != null) {
+	    head.previous = entry;
+	} else {
+	    tail = entry;
+	}
+	head = entry;
+	size++;
+    }
+
+    /**
+     * Adds the entry before another entry of the list
+     * 
+     * @param entry     is the entry to be added
+     * @param successor is the entry of the list which will follow the new entry
+     */
+    public void linkBefore(CacheEntry entry, CacheEntry successor) {
+	if (successor == head) {
+	    linkFirst(entry);
+	    return;
+	}
+	entry.next = successor;
+	entry.previous = successor.previous;
+	successor.previous.next = entry;
+	successor.previous = entry;
+	size++;
+    }
+
+    /**
+     * Removes the entry from the list
+     * 
+     * @param entry is an entry of this list
+     */
+    public void unlink(CacheEntry entry) {
+	if (entry.previous != null) {
+	    entry.previous.next = entry.next;
+	} else {
+	    head = entry.next;
+	}
+	if (entry.next != null) {
+	    entry.next.previous = entry.previous;
+	} else {
+	    tail = entry.previous;
+	}
+	entry.previous = null;
+	entry.next = null;
+	size--;
+    }
+
+    /**
+     * Moves the entry of this list to the front
+     * 
+     * @param entry is an entry of this list
+     */
+    public void moveToFront(CacheEntry entry) {
+	if (entry != head) {
+	    unlink(entry);
+	    linkFirst(entry);
+	}
+    }
+
+    /**
+     * Removes the last entry of the list
+     * 
+     * @return the last entry, or null if the list is empty
+     */
+    public CacheEntry removeLast() {
+	CacheEntry last = tail;
+	if (last != null) {
+	    unlink(last);
+	}
+	return last;
+    }
+
+    /**
+     * Returns the first entry
+     * 
+     * @return the first entry, or null if the list is empty
+     */
+    public CacheEntry getFirst() {
+	return head;
+    }
+
+    /**
+     * Returns the last entry
+     * 
+     * @return the last entry, or null if the list is empty
+     */
+    public CacheEntry getLast() {
+	return tail;
+    }
+
+    /**
+     * Empties the list
+     */
+    public void clear() {
+	head = null;
+	tail = null;
+	size = 0;
+    }
+
+    /**
+     * Returns the number of entries
+     * 
+     * @return the number of entries
+     */
+    public int size() {
+	return size;
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * ClockPolicy approximates LRU with a reference bit per node. The nodes form a
+ * circle swept by a hand: a referenced node gets its bit cleared and a second
+ * chance, the first node found without the bit is evicted. A hit only sets the
+ * bit, so it never moves an entry.
+ * 
+ * @author Sajia Zafreen
+ */
+public class ClockPolicy implements EvictionPolicy {
+    private CacheList circle = new CacheList();
+    private CacheEntry hand;
+
+    /**
+     * Returns the entry after the entry on the circle
+     * 
+     * @param entry is an entry of the circle
+     * @return the next entry
+     */
+    private CacheEntry after(CacheEntry entry) {
+	return entry.next != null ? entry.next : circle.getFirst();
+    }
+
+    @Override
+    public void hit(CacheEntry entry) {
+	entry.referenced = true;
+    }
+
+    @Override
+    public void add(CacheEntry entry) {
+	entry.referenced = true;
+	if (hand == null) {
+	    circle.linkFirst(entry);
+	    hand = entry;
+	} else {
+	    circle.linkBefore(entry, hand); // the last one the hand will reach
+	}
+    }
+
+    @Override
+    public CacheEntry evict(int location) {
+	while (hand.referenced) {
+	    hand.referenced = false;
+	    hand = after(hand);
+	}
+	CacheEntry victim = hand;
+	remove(victim);
+	return victim;
+    }
+
+    @Override
+    public void remove(CacheEntry entry) {
+	if (entry == hand) {
+	    hand = (circle.size() == 1) ? null : after(entry);
+	}
+	circle.unlink(entry);
+    }
+
+    @Override
+    public void clear() {
+	circle.clear();
+	hand = null;
+    }
+
+    @Override
+    public String getName() {
+	return "CLOCK";
+    }
+}
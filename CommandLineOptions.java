@@ -0,0 +1,118 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * CommandLineOptions separates the optional "--name=value" (or "--name")
+ * arguments of a command line from the positional ones.
+ * 
+ * @author Sajia Zafreen
+ */
+public class CommandLineOptions {
+    private String[] arguments;
+    private Map<String, String> options;
+
+    /**
+     * Constructor of the CommandLineOptions
+     * 
+     * @param args is the whole command line
+     */
+    public CommandLineOptions(String[] args) {
+	options = new LinkedHashMap<String, String>();
+	int numArguments = 0;
+	for (String arg : args) {
+	    if (!arg.startsWith("--")) {
+		numArguments++;
+	    }
+	}
+	arguments = new String[numArguments];
+	int index = 0;
+	for (String arg : args) {
+	    if (arg.startsWith("--")) {
+		int equals = arg.indexOf('=');
+		if (equals < 0) {
+		    options.put(arg.substring(2), "");
+		} else {
+		    options.put(arg.substring(2, equals), arg.substring(equals + 1));
+		}
+	    } else {
+		arguments[index++] = arg;
+	    }
+	}
+    }
+
+    /**
+     * Returns the positional arguments
+     * 
+     * @return the arguments which are not options
+     */
+    public String[] getArguments() {
+	return arguments;
+    }
+
+    /**
+     * Returns true if the option is given
+     * 
+     * @param name is the name of the option without "--"
+     * @return true if the option is given
+     */
+    public boolean hasOption(String name) {
+	return options.containsKey(name);
+    }
+
+    /**
+     * Returns the value of the option
+     * 
+     * @param name         is the name of the option without "--"
+     * @param defaultValue is returned if the option is not given
+     * @return the value of the option
+     */
+    public String getOption(String name, String defaultValue) {
+	String value = options.get(name);
+	return (value == null) ? defaultValue : value;
+    }
+
+    /**
+     * Returns the value of the option as an int
+     * 
+     * @param name         is the name of the option without "--"
+     * @param defaultValue is returned if the option is not given
+     * @return the value of the option
+     * @throws NumberFormatException if the value is not a number
+     */
+    public int getIntOption(String name, int defaultValue) {
+	String value = options.get(name);
+	return (value == null) ? defaultValue : Integer.parseInt(value);
+    }
+
+    /**
+     * Returns the value of the option as a double
+     * 
+     * @param name         is the name of the option without "--"
+     * @param defaultValue is returned if the option is not given
+     * @return the value of the option
+     * @throws NumberFormatException if the value is not a number
+     */
+    public double getDoubleOption(String name, double defaultValue) {
+	String value = options.get(name);
+	return (value == null) ? defaultValue : Double.parseDouble(value);
+    }
+
+    /**
+     * Returns the first option which is not one of the known options
+     * 
+     * @param knownNames are the names of the options of the program
+     * @return the unknown option, or null if all the options are known
+     */
+    public String unknownOption(String... knownNames) {
+	for (String name : options.keySet()) {
+	    boolean known = false;
+	    for (String knownName : knownNames) {
+		known = known || knownName.equals(name);
+	    }
+	    if (!known) {
+		return "--" + name;
+	    }
+	}
+	return null;
+    }
+}
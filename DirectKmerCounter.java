@@ -0,0 +1,105 @@
+/**
+ * DirectKmerCounter is the KmerCounter for short DNA sequences. It has one int
+ * counter for each of the 4^length possible sequences, indexed by the binary
+ * key, so counting a sequence is one array increment and the sorted counts are
+ * one scan of the array. It is only used when the array fits in the memory
+ * limit. A slice of the array, counting one range of keys, is a shard of a
+ * ShardedKmerCounter.
+ * 
+ * @author Sajia Zafreen
+ */
+public class DirectKmerCounter implements KmerCounter {
+    static final int MAX_LENGTH = 15; // 4^15 ints is the largest int array
+
+    private int[] counts;
+    private long firstKey; // of the slice
+
+    /**
+     * Constructor of the DirectKmerCounter
+     * 
+     * @param length is the length of the DNA sequence, at most MAX_LENGTH
+     */
+    public DirectKmerCounter(int length) {
+	if (length < 1 || length > MAX_LENGTH) {
+	    throw new IllegalArgumentException("Length should be between 1 and " + MAX_LENGTH + " inclusive");
+	}
+	counts = new int[1 << (2 * length)];
+    }
+
+    /**
+     * Constructor of the DirectKmerCounter of a slice of the keys
+     * 
+     * @param sliceBits is the number of low bits of the keys of the slice, at most
+     *                  2 * MAX_LENGTH
+     * @param firstKey  is the first key of the slice
+     */
+    DirectKmerCounter(int sliceBits, long firstKey) {
+	counts = new int[1 << sliceBits];
+	this.firstKey = firstKey;
+    }
+
+    /**
+     * Returns the memory needed by the counters of a length
+     * 
+     * @param length is the length of the DNA sequence
+     * @return the number of bytes of the counters
+     */
+    public static long memoryNeeded(int length) {
+	return 4L << (2 * length);
+    }
+
+    /**
+     * Returns true if the counters of a length fit in the memory limit
+     * 
+     * @param length      is the length of the DNA sequence
+     * @param memoryLimit is the memory limit in bytes
+     * @return true if a DirectKmerCounter can be used
+     */
+    public static boolean fits(int length, long memoryLimit) {
+	return length <= MAX_LENGTH && memoryNeeded(length) <= memoryLimit;
+    }
+
+    @Override
+    public void accept(long binaryKey) {
+	counts[(int) (binaryKey - firstKey)]++;
+    }
+
+    @Override
+    public KmerCountIterator sortedCounts() {
+	int distinct = 0;
+	for (int count : counts) {
+	    if (count != 0) {
+		distinct++;
+	    }
+	}
+	final int size = distinct;
+	return new KmerCountIterator() {
+	    private int key = -1;
+
+	    @Override
+	    public boolean next() {
+		while (++key < counts.length) {
+		    if (counts[key] != 0) {
+			return true;
+		    }
+		}
+		return false;
+	    }
+
+	    @Override
+	    public long getKey() {
+		return firstKey + key;
+	    }
+
+	    @Override
+	    public int getCount() {
+		return counts[key];
+	    }
+
+	    @Override
+	    public long size() {
+		return size;
+	    }
+	};
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ * EvictionPolicy decides which node the BTreeCache removes when it is full. The
+ * cache keeps the index of the nodes by location; the policy keeps the order of
+ * the entries (and possibly ghost entries of recently evicted locations).
+ * 
+ * @author Sajia Zafreen
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Called when a node of the Cache is accessed
+     * 
+     * @param entry is the entry of the node
+     */
+    void hit(CacheEntry entry);
+
+    /**
+     * Called when a node is added to the Cache
+     * 
+     * @param entry is the new entry
+     */
+    void add(CacheEntry entry);
+
+    /**
+     * Chooses the entry to be evicted from the full Cache and forgets it.
+     * 
+     * @param location is the location of the node which will be added next
+     * @return the evicted entry
+     */
+    CacheEntry evict(int location);
+
+    /**
+     * Called when a node is removed from the Cache other than by eviction
+     * 
+     * @param entry is the removed entry
+     */
+    void remove(CacheEntry entry);
+
+    /**
+     * Forgets all the entries
+     */
+    void clear();
+
+    /**
+     * Returns the name of the policy
+     * 
+     * @return the name of the policy
+     */
+    String getName();
+}
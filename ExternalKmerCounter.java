@@ -0,0 +1,556 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * ExternalKmerCounter is the KmerCounter for inputs whose DNA sequences do not
+ * fit in memory. It uses one off-heap buffer of a fixed size, the memory budget,
+ * and temporary files.
+ * 
+ * The keys are appended to the buffer as primitive longs. When the buffer is
+ * full it is sorted in place, the runs of equal keys are collapsed into (key,
+ * count) pairs and the pairs are spilled to a run file. At the end the run files
+ * are merged k ways, adding up the counts of equal keys. If there are more runs
+ * than the buffer can hold read buffers for, groups of runs are first merged
+ * into larger runs. The last merge is streamed once, straight into
+ * BTreeBulkLoader: the number of distinct keys is not known before its end, so
+ * the iterator gives -1 as its size. If nothing was spilled the keys never
+ * leave the buffer.
+ * 
+ * Run file: (long key, int count) || (long key, int count) || ..... in
+ * increasing key order
+ * 
+ * @author Sajia Zafreen
+ */
+public class ExternalKmerCounter implements KmerCounter {
+    static final int IO_BUFFER_SIZE = 1 << 16; // read or write buffer of one run file
+    static final int PAIR_LENGTH = 12; // long key and int count
+    private static final int INSERTION_SORT_SIZE = 16;
+
+    private File tmpDir;
+    private ByteBuffer memory; // the whole memory budget, off heap
+    private LongBuffer keys; // memory less the write buffer, while counting
+    private ByteBuffer writeBuffer;
+    private int numBufferKeys;
+    private List<File> runs;
+
+    // statistics
+    private long numKeys;
+    private int runsWritten;
+    private long bytesSpilled;
+    private int mergePasses;
+
+    /**
+     * Constructor of the ExternalKmerCounter
+     * 
+     * @param memoryBytes is the memory budget in bytes, at least 4 I/O buffers
+     * @param tmpDir      is the directory of the run files, null for the default
+     *                    temporary directory
+     */
+    public ExternalKmerCounter(long memoryBytes, File tmpDir) {
+	if (memoryBytes < 4 * IO_BUFFER_SIZE) {
+	    throw new IllegalArgumentException("Memory should be at least " + 4 * IO_BUFFER_SIZE + " bytes");
+	}
+	this.tmpDir = tmpDir;
+	// a direct buffer is limited to 2GB
+	int capacity = (int) Math.min(memoryBytes, Integer.MAX_VALUE & ~7);
+	memory = ByteBuffer.allocateDirect(capacity);
+	keys = slice(0, capacity - IO_BUFFER_SIZE).asLongBuffer();
+	writeBuffer = slice(capacity - IO_BUFFER_SIZE, IO_BUFFER_SIZE);
+	numBufferKeys = 0;
+	runs = new ArrayList<File>();
+    }
+
+    @Override
+    public void accept(long binaryKey) {
+	if (numBufferKeys == keys.capacity()) {
+	    try {
+		spill();
+	    } catch (IOException e) {
+		throw new UncheckedIOException(e);
+	    }
+	}
+	keys.put(numBufferKeys++, binaryKey);
+	numKeys++;
+    }
+
+    @Override
+    public KmerCountIterator sortedCounts() throws IOException {
+	if (runs.isEmpty()) {
+	    sort(keys, 0, numBufferKeys);
+	    long distinct = 0;
+	    for (int i = 0; i < numBufferKeys; i++) {
+		if (i == 0 || keys.get(i) != keys.get(i - 1)) {
+		    distinct++;
+		}
+	    }
+	    return new BufferIterator(keys, numBufferKeys, distinct);
+	}
+	if (numBufferKeys > 0) {
+	    spill();
+	}
+	// the key buffer is not needed any more, the memory is now cut into read
+	// buffers and one write buffer
+	int fanIn = memory.capacity() / IO_BUFFER_SIZE - 1;
+	while (runs.size() > fanIn) {
+	    List<File> group = new ArrayList<File>(runs.subList(0, fanIn));
+	    runs.subList(0, fanIn).clear();
+	    RunMerger merger = new RunMerger(group, -1, true);
+	    File run = newRunFile();
+	    RunWriter writer = new RunWriter(run, slice(fanIn * IO_BUFFER_SIZE, IO_BUFFER_SIZE));
+	    try {
+		while (merger.next()) {
+		    writer.write(merger.getKey(), merger.getCount());
+		}
+	    } finally {
+		merger.close();
+		writer.close();
+	    }
+	    bytesSpilled += writer.getBytesWritten();
+	    runs.add(run);
+	    mergePasses++;
+	}
+	mergePasses++;
+	return new RunMerger(runs, -1, true);
+    }
+
+    /**
+     * Sorts the keys in the buffer, and writes them as (key, count) pairs to a new
+     * run file
+     * 
+     * @throws IOException if the run file cannot be written
+     */
+    private void spill() throws IOException {
+	sort(keys, 0, numBufferKeys);
+	File run = newRunFile();
+	writeBuffer.clear();
+	RunWriter writer = new RunWriter(run, writeBuffer);
+	try {
+	    int i = 0;
+	    while (i < numBufferKeys) {
+		long key = keys.get(i);
+		int count = 0;
+		while (i < numBufferKeys && keys.get(i) == key) {
+		    count++;
+		    i++;
+		}
+		writer.write(key, count);
+	    }
+	} finally {
+	    writer.close();
+	}
+	runs.add(run);
+	runsWritten++;
+	bytesSpilled += writer.getBytesWritten();
+	numBufferKeys = 0;
+    }
+
+    /**
+     * Creates an empty run file in the temporary directory
+     * 
+     * @return the run file
+     * @throws IOException if the file cannot be created
+     */
+    private File newRunFile() throws IOException {
+	File run = File.createTempFile("kmers", ".run", tmpDir);
+	run.deleteOnExit();
+	return run;
+    }
+
+    /**
+     * Returns a part of the memory buffer
+     * 
+     * @param offset is the first byte of the part
+     * @param length is the number of bytes of the part
+     * @return the part, sharing the memory buffer
+     */
+    private ByteBuffer slice(int offset, int length) {
+	ByteBuffer part = memory.duplicate();
+	part.limit(offset + length);
+	part.position(offset);
+	return part.slice();
+    }
+
+    /**
+     * Sorts a range of keys in place. It is a quicksort with a three way
+     * partition, as the same DNA sequence is usually found many times.
+     * 
+     * @param keys is the buffer of keys
+     * @param low  is the first index of the range
+     * @param high is one past the last index of the range
+     */
+    static void sort(LongBuffer keys, int low, int high) {
+	while (high - low > INSERTION_SORT_SIZE) {
+	    int middle = (low + high) >>> 1;
+	    long pivot = median(keys.get(low), keys.get(middle), keys.get(high - 1));
+	    // [low, lower) < pivot, [lower, i) == pivot, (upper, high) > pivot
+	    int lower = low;
+	    int upper = high - 1;
+	    int i = low;
+	    while (i <= upper) {
+		long key = keys.get(i);
+		if (key < pivot) {
+		    keys.put(i++, keys.get(lower));
+		    keys.put(lower++, key);
+		} else if (key > pivot) {
+		    keys.put(i, keys.get(upper));
+		    keys.put(upper--, key);
+		} else {
+		    i++;
+		}
+	    }
+	    // recursion on the smaller side keeps the stack small
+	    if (lower - low < high - upper - 1) {
+		sort(keys, low, lower);
+		low = upper + 1;
+	    } else {
+		sort(keys, upper + 1, high);
+		high = lower;
+	    }
+	}
+	for (int i = low + 1; i < high; i++) {
+	    long key = keys.get(i);
+	    int j = i - 1;
+	    while (j >= low && keys.get(j) > key) {
+		keys.put(j + 1, keys.get(j));
+		j--;
+	    }
+	    keys.put(j + 1, key);
+	}
+    }
+
+    /**
+     * Returns the median of three keys
+     * 
+     * @param a is the first key
+     * @param b is the second key
+     * @param c is the third key
+     * @return the median
+     */
+    private static long median(long a, long b, long c) {
+	if (a < b) {
+	    return (b < c) ? b : Math.max(a, c);
+	}
+	return (a < c) ? a : Math.max(b, c);
+    }
+
+    /**
+     * Returns the number of keys counted, with repeats
+     * 
+     * @return the number of keys
+     */
+    public long getNumKeys() {
+	return numKeys;
+    }
+
+    /**
+     * Returns the number of run files spilled while counting
+     * 
+     * @return the number of runs
+     */
+    public int getRunsWritten() {
+	return runsWritten;
+    }
+
+    /**
+     * Returns the statistics of the counting
+     * 
+     * @return the statistics as a line of text
+     */
+    public String getStatistics() {
+	return String.format("External sort of %d keys with %d MB: %d runs, %d bytes spilled, %d merge passes.",
+		numKeys, memory.capacity() >> 20, runsWritten, bytesSpilled, mergePasses);
+    }
+
+    /**
+     * Iterates over the sorted keys of the buffer, counting the equal keys
+     */
+    private static class BufferIterator implements KmerCountIterator {
+	private LongBuffer keys;
+	private int numKeys;
+	private long size;
+	private int index;
+	private long key;
+	private int count;
+
+	/**
+	 * Constructor of the BufferIterator
+	 *
+	 * @param keys    is the sorted buffer
+	 * @param numKeys is the number of keys in the buffer
+	 * @param size    is the number of distinct keys
+	 */
+	BufferIterator(LongBuffer keys, int numKeys, long size) {
+	    this.keys = keys;
+	    this.numKeys = numKeys;
+	    this.size = size;
+	}
+
+	@Override
+	public boolean next() {
+	    if (index >= numKeys) {
+		return false;
+	    }
+	    key = keys.get(index);
+	    count = 0;
+	    while (index < numKeys && keys.get(index) == key) {
+		count++;
+		index++;
+	    }
+	    return true;
+	}
+
+	@Override
+	public long getKey() {
+	    return key;
+	}
+
+	@Override
+	public int getCount() {
+	    return count;
+	}
+
+	@Override
+	public long size() {
+	    return size;
+	}
+    }
+
+    /**
+     * Merges run files, adding up the counts of the keys found in more than one
+     * run. Each run is read through its own part of the memory buffer.
+     */
+    private class RunMerger implements KmerCountIterator, Closeable {
+	private PriorityQueue<RunReader> queue;
+	private List<RunReader> readers;
+	private long size;
+	private boolean deleteRuns;
+	private long key;
+	private int count;
+
+	/**
+	 * Constructor of the RunMerger
+	 *
+	 * @param runFiles   are the runs to merge
+	 * @param size       is the number of distinct keys, -1 if it is not known
+	 * @param deleteRuns is true if the runs are deleted once read
+	 * @throws IOException if a run cannot be read
+	 */
+	RunMerger(List<File> runFiles, long size, boolean deleteRuns) throws IOException {
+	    this.size = size;
+	    this.deleteRuns = deleteRuns;
+	    queue = new PriorityQueue<RunReader>(Math.max(1, runFiles.size()),
+		    Comparator.comparingLong(RunReader::getKey));
+	    readers = new ArrayList<RunReader>(runFiles.size());
+	    for (int i = 0; i < runFiles.size(); i++) {
+		RunReader reader = new RunReader(runFiles.get(i), slice(i * IO_BUFFER_SIZE, IO_BUFFER_SIZE));
+		readers.add(reader);
+		if (reader.next()) {
+		    queue.add(reader);
+		}
+	    }
+	}
+
+	@Override
+	public boolean next() throws IOException {
+	    RunReader reader = queue.poll();
+	    if (reader == null) {
+		close();
+		return false;
+	    }
+	    key = reader.getKey();
+	    count = 0;
+	    while (true) {
+		count += reader.getCount();
+		if (reader.next()) {
+		    queue.add(reader);
+		}
+		if (queue.isEmpty() || queue.peek().getKey() != key) {
+		    return true;
+		}
+		reader = queue.poll();
+	    }
+	}
+
+	@Override
+	public long getKey() {
+	    return key;
+	}
+
+	@Override
+	public int getCount() {
+	    return count;
+	}
+
+	@Override
+	public long size() {
+	    return size;
+	}
+
+	@Override
+	public void close() throws IOException {
+	    for (RunReader reader : readers) {
+		reader.close(deleteRuns);
+	    }
+	    readers.clear();
+	    queue.clear();
+	}
+    }
+
+    /**
+     * Reads the (key, count) pairs of one run file
+     */
+    private static class RunReader {
+	private File file;
+	private FileChannel channel;
+	private ByteBuffer buffer;
+	private long key;
+	private int count;
+
+	/**
+	 * Constructor of the RunReader
+	 *
+	 * @param file   is the run file
+	 * @param buffer is the read buffer
+	 * @throws IOException if the file cannot be opened
+	 */
+	RunReader(File file, ByteBuffer buffer) throws IOException {
+	    this.file = file;
+	    this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+	    this.buffer = buffer;
+	    buffer.clear();
+	    buffer.limit(0);
+	}
+
+	/**
+	 * Moves to the next pair of the run
+	 *
+	 * @return false at the end of the run
+	 * @throws IOException if the file cannot be read
+	 */
+	boolean next() throws IOException {
+	    if (buffer.remaining() < PAIR_LENGTH) {
+		buffer.compact();
+		while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+		}
+		buffer.flip();
+		if (buffer.remaining() < PAIR_LENGTH) {
+		    return false;
+		}
+	    }
+	    key = buffer.getLong();
+	    count = buffer.getInt();
+	    return true;
+	}
+
+	/**
+	 * Returns the key of the current pair
+	 *
+	 * @return the binary key of the DNA sequence
+	 */
+	long getKey() {
+	    return key;
+	}
+
+	/**
+	 * Returns the count of the current pair
+	 *
+	 * @return the count of the key in the run
+	 */
+	int getCount() {
+	    return count;
+	}
+
+	/**
+	 * Closes the run file
+	 *
+	 * @param delete is true if the file is deleted
+	 * @throws IOException if the file cannot be closed
+	 */
+	void close(boolean delete) throws IOException {
+	    channel.close();
+	    if (delete) {
+		file.delete();
+	    }
+	}
+    }
+
+    /**
+     * Writes (key, count) pairs to one run file
+     */
+    private static class RunWriter {
+	private FileChannel channel;
+	private ByteBuffer buffer;
+	private long bytesWritten;
+
+	/**
+	 * Constructor of the RunWriter
+	 *
+	 * @param file   is the run file
+	 * @param buffer is the write buffer
+	 * @throws IOException if the file cannot be opened
+	 */
+	RunWriter(File file, ByteBuffer buffer) throws IOException {
+	    this.channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+		    StandardOpenOption.TRUNCATE_EXISTING);
+	    this.buffer = buffer;
+	    buffer.clear();
+	}
+
+	/**
+	 * Appends a pair to the run
+	 *
+	 * @param key   is the binary key of the DNA sequence
+	 * @param count is the count of the key
+	 * @throws IOException if the file cannot be written
+	 */
+	void write(long key, int count) throws IOException {
+	    if (buffer.remaining() < PAIR_LENGTH) {
+		flush();
+	    }
+	    buffer.putLong(key);
+	    buffer.putInt(count);
+	}
+
+	/**
+	 * Writes the buffer to the file
+	 *
+	 * @throws IOException if the file cannot be written
+	 */
+	private void flush() throws IOException {
+	    buffer.flip();
+	    while (buffer.hasRemaining()) {
+		bytesWritten += channel.write(buffer);
+	    }
+	    buffer.clear();
+	}
+
+	/**
+	 * Returns the number of bytes written to the run
+	 *
+	 * @return the number of bytes
+	 */
+	long getBytesWritten() {
+	    return bytesWritten;
+	}
+
+	/**
+	 * Writes the rest of the buffer and closes the file
+	 *
+	 * @throws IOException if the file cannot be written
+	 */
+	void close() throws IOException {
+	    flush();
+	    channel.close();
+	}
+    }
+}
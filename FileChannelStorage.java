@@ -0,0 +1,84 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * FileChannelStorage is the BTreeStorage on a FileChannel. Reads and writes of
+ * one buffer are positional, one call each and no file pointer, so reads may be
+ * shared by threads. A run of buffers is written with one gathering write at
+ * the channel position. Direct buffers are read and written without a copy.
+ * 
+ * @author Sajia Zafreen
+ */
+public class FileChannelStorage implements BTreeStorage {
+    private FileChannel channel;
+
+    /**
+     * Constructor of the FileChannelStorage
+     * 
+     * @param fileName is the BTree file
+     * @param write    is true to create or update the file, false to read it only
+     * @throws IOException if the file cannot be opened
+     */
+    public FileChannelStorage(String fileName, boolean write) throws IOException {
+	if (write) {
+	    channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ, StandardOpenOption.WRITE,
+		    StandardOpenOption.CREATE);
+	} else {
+	    channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+	}
+    }
+
+    @Override
+    public int read(ByteBuffer buffer, long position) throws IOException {
+	int total = 0;
+	while (buffer.hasRemaining()) {
+	    int read = channel.read(buffer, position + total);
+	    if (read < 0) {
+		break;
+	    }
+	    total += read;
+	}
+	return total;
+    }
+
+    @Override
+    public void write(ByteBuffer buffer, long position) throws IOException {
+	while (buffer.hasRemaining()) {
+	    position += channel.write(buffer, position);
+	}
+    }
+
+    @Override
+    public void write(ByteBuffer[] buffers, int offset, int length, long position) throws IOException {
+	channel.position(position);
+	while (buffers[offset + length - 1].hasRemaining()) {
+	    channel.write(buffers, offset, length);
+	}
+    }
+
+    @Override
+    public long length() throws IOException {
+	return channel.size();
+    }
+
+    @Override
+    public void extend(long length) throws IOException {
+	if (channel.size() < length) {
+	    // a FileChannel cannot grow a file but by writing its last byte
+	    channel.write(ByteBuffer.allocate(1), length - 1);
+	}
+    }
+
+    @Override
+    public String getName() {
+	return "channel";
+    }
+
+    @Override
+    public void close() throws IOException {
+	channel.close();
+    }
+}
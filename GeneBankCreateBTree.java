@@ -1,9 +1,14 @@
-import java.io.FileInputStream;
-import java.io.FileWriter;
+import java.io.File;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.RandomAccessFile;
-import java.util.Scanner;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.LongConsumer;
 
 /**
  * GeneBankCreateBTree creates a BTree from an user input "GeneBank" files of
@@ -19,14 +24,39 @@ public class GeneBankCreateBTree {
      * @param args
      */
     public static void main(String args[]) {
+	CommandLineOptions options = new CommandLineOptions(args);
+	args = options.getArguments();
 	if (args.length < 4 || args.length > 6) {
 	    printUsage();
 	    System.exit(1);
 	}
+	String unknownOption = options.unknownOption("cache-policy", "bulk", "fill", "external", "memory",
+		"tmpdir", "memtable",
+		"direct-memory", "threads",
+		"pipeline", "queue-size", "storage", "canonical");
+	if (unknownOption != null) {
+	    System.err.println("Unknown option " + unknownOption);
+	    printUsage();
+	    System.exit(1);
+	}
+	String cachePolicy = options.getOption("cache-policy", "lru");
+	try {
+	    BTreeCache.createPolicy(cachePolicy, 2);
+	} catch (IllegalArgumentException e) {
+	    System.err.println("Cache policy should be lru, clock, 2q or arc");
+	    printUsage();
+	    System.exit(1);
+	}
+	String storage = options.getOption("storage", BTreeStorage.DEFAULT_STORAGE);
+	if (!storage.equals("raf") && !storage.equals("channel")) {
+	    System.err.println("Storage should be raf or channel");
+	    printUsage();
+	    System.exit(1);
+	}
 	int cache;
 	int degree;
 	String fileName;
-	int length;
+	int[] lengths;
 	int debug = 0;
 	int cacheSize = 0;
 	try {
@@ -47,12 +77,16 @@ public class GeneBankCreateBTree {
 		System.exit(1);
 	    }
 	    fileName = args[2].toString();
-	    length = Integer.parseInt(args[3]);
+	    lengths = parseLengths(args[3]);
 	    // checking length condition
-	    if (length < 1 || length > 31) {
-		System.err.println("Length should be between 1 and 31 inclusive");
-		printUsage();
-		System.exit(1);
+	    boolean wideKeys = false; // a length above 31, with 128-bit keys
+	    for (int length : lengths) {
+		if (length < 1 || length > BinaryFormat.MAX_LENGTH) {
+		    System.err.println("Length should be between 1 and 63 inclusive");
+		    printUsage();
+		    System.exit(1);
+		}
+		wideKeys |= length > BinaryFormat.MAX_LONG_LENGTH;
 	    }
 
 	    if (cache == 0) {
@@ -114,150 +148,340 @@ public class GeneBankCreateBTree {
 		}
 	    }
 
+	    boolean external = options.hasOption("external") || options.hasOption("memory")
+		    || options.hasOption("tmpdir");
+	    boolean bulk = external || options.hasOption("bulk") || options.hasOption("fill");
+	    double fillFactor = options.getDoubleOption("fill", 1.0);
+	    if (fillFactor <= 0 || fillFactor > 1) {
+		System.err.println("Fill factor should be more than 0 and at most 1");
+		printUsage();
+		System.exit(1);
+	    }
+	    int memory = options.getIntOption("memory", 64);
+	    if (memory < 1) {
+		System.err.println("Memory should be at least 1 MB");
+		printUsage();
+		System.exit(1);
+	    }
+	    int memtable = options.getIntOption("memtable", 0);
+	    if (memtable < 0) {
+		System.err.println("Memtable size should not be negative");
+		printUsage();
+		System.exit(1);
+	    } else if (memtable > 0 && bulk) {
+		// the bulk loads count all the DNA sequences before building the BTree
+		System.err.println("--memtable cannot be used with --bulk, --fill or --external");
+		printUsage();
+		System.exit(1);
+	    }
+	    int directMemory = options.getIntOption("direct-memory", 64);
+	    if (directMemory < 0) {
+		System.err.println("Direct memory should not be negative");
+		printUsage();
+		System.exit(1);
+	    }
+	    int threads = options.getIntOption("threads", 1);
+	    if (threads < 1) {
+		System.err.println("Threads should be at least 1");
+		printUsage();
+		System.exit(1);
+	    } else if (threads > 1 && (memtable > 0 || options.hasOption("pipeline"))) {
+		System.err.println("--threads cannot be used with --memtable or --pipeline");
+		printUsage();
+		System.exit(1);
+	    }
+	    int queueSize = 0; // no pipeline
+	    if (options.hasOption("pipeline")) {
+		queueSize = options.getIntOption("queue-size", 8);
+		if (queueSize < 1) {
+		    System.err.println("Queue size should be at least 1");
+		    printUsage();
+		    System.exit(1);
+		}
+	    }
+	    if (wideKeys && (bulk || memtable > 0 || threads > 1 || queueSize > 0)) {
+		System.err.println(
+			"Lengths above 31 are inserted one by one: --bulk, --external, --memtable, --threads and --pipeline cannot be used");
+		printUsage();
+		System.exit(1);
+	    }
+	    File tmpDir = null;
+	    if (options.hasOption("tmpdir")) {
+		tmpDir = new File(options.getOption("tmpdir", ""));
+		if (!tmpDir.isDirectory()) {
+		    System.err.println("Temporary directory " + tmpDir + " does not exist");
+		    printUsage();
+		    System.exit(1);
+		}
+	    }
+
+	    if (options.hasOption("canonical")) {
+		System.err.println("Each DNA sequence is stored with its reverse complement as the smaller of the two.");
+	    }
+
 	    // *** writing BTree ***
 	    try {
-		createBTree(degree, fileName, length, cacheSize);
-	    } catch (IOException e) {
-		System.err.println("Cannot parsefile");
+		KmerTreeBuilder[] builders = new KmerTreeBuilder[lengths.length];
+		for (int i = 0; i < lengths.length; i++) {
+		    builders[i] = new KmerTreeBuilder(fileName, lengths[i], degree, options.hasOption("canonical"));
+		}
+		// the memory of --external is shared by the lengths
+		long externalMemory = external ? Math.max(1 << 20, ((long) memory << 20) / lengths.length) : 0;
+		if (threads > 1) {
+		    // --external counts even the short sequences with the external sort
+		    parallelCreateBTree(fileName, builders, fillFactor, threads, external ? 0 : (long) directMemory << 20,
+			    externalMemory, tmpDir, storage);
+		} else {
+		    for (KmerTreeBuilder builder : builders) {
+			int length = builder.getLength();
+			// short sequences are counted in an array of all the possible
+			// sequences, unless another way of counting is asked for
+			if (length > BinaryFormat.MAX_LONG_LENGTH) {
+			    builder.insert(cacheSize, cachePolicy, memtable, storage);
+			} else if (!external && memtable == 0
+				&& DirectKmerCounter.fits(length, (long) directMemory << 20)) {
+			    System.err.println("The DNA sequences of length " + length + " are counted directly in "
+				    + DirectKmerCounter.memoryNeeded(length) + " bytes.");
+			    builder.count(new DirectKmerCounter(length), fillFactor, storage);
+			} else if (external) {
+			    builder.count(new ExternalKmerCounter(externalMemory, tmpDir), fillFactor, storage);
+			} else if (bulk) {
+			    builder.count(new KmerCollector(), fillFactor, storage);
+			} else {
+			    builder.insert(cacheSize, cachePolicy, memtable, storage);
+			}
+		    }
+		    parseSequences(fileName, builders, queueSize);
+		    for (KmerTreeBuilder builder : builders) {
+			builder.finish();
+		    }
+		}
+	    } catch (IllegalStateException e) {
+		System.err.println(e.getMessage()); // a count table is full
+		System.exit(1);
+	    } catch (UncheckedIOException | IOException e) {
+		System.err.println("Cannot parsefile: " + e.getMessage()
+			+ (e.getCause() != null ? " (" + e.getCause().getMessage() + ")" : ""));
 		printUsage();
 		System.exit(1);
 	    }
 
 	    if (debug == 1) {
-		PrintWriter writer = null;
 		try {
-		    debugPrint(fileName, degree, length, writer, cacheSize);
+		    for (int length : lengths) {
+			debugPrint(fileName, degree, length, cacheSize, cachePolicy, storage);
+		    }
 		    System.err.println("A dump file is created where BTree is printed in InOrder Traversal.");
 		} catch (IOException e) {
 		    System.err.println("File not found to print debug level 1");
 		    printUsage();
 		    e.printStackTrace();
-		} finally {
-		    if (writer != null) {
-			writer.close();
-		    }
 		}
 	    }
 	} catch (NumberFormatException e) {
-	    System.err.println("Cache, Degree, Length should be a number");
+	    System.err.println("Cache, Degree, Length, Fill should be a number");
 	    printUsage();
 	    System.exit(1);
 	}
     }
 
+    /**
+     * Parses the sequence length argument: a length, a range of lengths like 6-11,
+     * or a list of both separated by commas like 6,7,11-15
+     * 
+     * @param argument is the sequence length argument
+     * @return the distinct lengths in increasing order
+     * @throws NumberFormatException if a length is not a number
+     */
+    private static int[] parseLengths(String argument) {
+	TreeSet<Integer> lengths = new TreeSet<Integer>();
+	for (String part : argument.split(",")) {
+	    int dash = part.indexOf('-', 1);
+	    if (dash < 0) {
+		lengths.add(Integer.parseInt(part.trim()));
+	    } else {
+		int first = Integer.parseInt(part.substring(0, dash).trim());
+		int last = Integer.parseInt(part.substring(dash + 1).trim());
+		if (first > last || last - first >= BinaryFormat.MAX_LENGTH) {
+		    throw new NumberFormatException("Bad range of lengths " + part);
+		}
+		for (int length = first; length <= last; length++) {
+		    lengths.add(length);
+		}
+	    }
+	}
+	int[] result = new int[lengths.size()];
+	int i = 0;
+	for (int length : lengths) {
+	    result[i++] = length;
+	}
+	return result;
+    }
+
     /**
      * Prints BTree in a dump file if user selects debug level 1.
      * 
      * @param fileName  is the file name of the data file
      * @param degree    is the degree of the BTree
      * @param length    of the DNA sequence
-     * @param writer    is the name of the writer file
-     * @param cacheSize is the cache size
+     * @param cacheSize   is the cache size
+     * @param cachePolicy is the eviction policy of the cache
+     * @param storage     is the storage backend of the BTree file
      * @throws IOException
      */
-    private static void debugPrint(String fileName, int degree, int length, PrintWriter writer, int cacheSize)
-	    throws IOException {
+    private static void debugPrint(String fileName, int degree, int length, int cacheSize, String cachePolicy,
+	    String storage) throws IOException {
 	String inputString = fileName + ".btree.data." + length + "." + degree;
-	RandomAccessFile randomFile = new RandomAccessFile(inputString, "r");
-	BTree bTree = new BTree(randomFile, cacheSize);
+	BTreeStorage randomFile = BTreeStorage.open(inputString, false, storage);
+	BTree bTree = new BTree(randomFile, cacheSize, cachePolicy);
 	bTree.read_Tree_MetaData();
-	TreeNode rootNode = bTree.bTree_Read(bTree.getRootLocation());
 	String output = fileName + ".bTree.dump." + length;
-	writer = new PrintWriter(new FileWriter(output));
-	bTree.writeTreeInOderToFile(rootNode, length, writer);
-	writer.close();
+	bTree.writeDump(output, length);
+	randomFile.close();
+	KmerTreeBuilder.printCacheStatistics(bTree);
     }
 
     /**
-     * Creates a BTree and stores the data in a file, if cache is mentioned a cache
-     * is implemented
+     * Hands the binary key of every DNA sequence of the GeneBank file to the sinks
+     * of the builders, directly or through a KmerPipeline, and prints the parsing
+     * statistics. The file is parsed once for all the lengths.
      * 
-     * @param degree    is the degree of the BTree
-     * @param fileName  is the fileName where the BTree will be stored
-     * @param length    is the length of the DNA sequence
-     * @param cacheSize is the size of the cache
-     * @throws IOException
+     * @param fileName  is the GeneBank file
+     * @param builders  are the builders of the BTrees, one for each length
+     * @param queueSize is the size of the queues of the pipeline, 0 for no
+     *                  pipeline
+     * @throws IOException if the file cannot be read
      */
-    private static void createBTree(int degree, String fileName, int length, int cacheSize) throws IOException {
-	FileInputStream inputStream = null;
-	Scanner scanFile = null;
-	boolean nextPrint = false;
-	String file = fileName + ".btree.data." + length + "." + degree;
-	String inputString = "";
-	BTree bTree = new BTree(degree, file, cacheSize);
-	if (degree >= 2) {
-	    System.err.println("A BTree of degree " + degree + " is created.");
-	} else if (degree == 0) {
-	    System.err.println("A BTree of optimal degree is created.");
-	}
-
-	if (cacheSize > 0) {
-	    System.err.println("A BTree Cache of size "+ cacheSize +" is implemented.");
+    private static void parseSequences(String fileName, KmerTreeBuilder[] builders, int queueSize)
+	    throws IOException {
+	int[] lengths = new int[builders.length];
+	boolean canonical = builders[0].isCanonical();
+	LongConsumer[] sinks = new LongConsumer[builders.length];
+	WideKeyConsumer[] wideSinks = new WideKeyConsumer[builders.length];
+	for (int i = 0; i < builders.length; i++) {
+	    lengths[i] = builders[i].getLength();
+	    sinks[i] = builders[i].getSink();
+	    wideSinks[i] = builders[i].getWideSink();
 	}
 	try {
-	    inputStream = new FileInputStream(fileName);
-	    scanFile = new Scanner(inputStream, "UTF-8");
-	    String lastString = "";
-	    while (scanFile.hasNextLine()) {// line loop
-		String line = scanFile.nextLine();
-		if (line.contains("//")) {
-		    nextPrint = false;
-		    lastString = "";
+	    if (queueSize > 0) {
+		KmerPipeline pipeline = new KmerPipeline(fileName, lengths, queueSize, canonical);
+		pipeline.run(sinks);
+		printParseStatistics(pipeline.getReader());
+		System.err.println(pipeline.getStatistics());
+	    } else {
+		try (GeneBankReader reader = new GeneBankReader(fileName)) {
+		    // the window is carried over from one 60 base line to the next, and
+		    // forgotten at the end of each sequence
+		    reader.parse(new KmerEncoder(lengths, sinks, wideSinks, canonical));
+		    printParseStatistics(reader);
 		}
-		if (nextPrint) {
-		    Scanner scanLine = new Scanner(line);
-		    scanLine.useDelimiter("\\s+");
-		    while (scanLine.hasNext()) { // each word parsing
-			String word = scanLine.next();
-			if (!word.matches("[0-9]+")) {
-			    inputString = inputString + word;
-			}
-		    }
+	    }
+	} catch (UncheckedIOException e) {
+	    throw e.getCause(); // a run file could not be spilled
+	}
+    }
 
-		    String newString = lastString + inputString;
-		    // print inputString for given length
-		    boolean lString = false;
-		    for (int strIn = 0; strIn < newString.length(); strIn++) {
-			String inputTree = "";
-			int token = strIn;
-			for (int i = 0; i < length && !lString; i++) {
-			    inputTree = inputTree + newString.charAt(token++);
-			}
-			if (strIn == (newString.length() - length)) {
-			    lastString = "";
-			    lString = true;
-			}
-			if (lString && (strIn < newString.length() - 1)) {
-			    lastString = lastString + newString.charAt(strIn + 1);
+    /**
+     * Creates packed BTrees with several threads. The GeneBank file is split in
+     * ranges of whole records, the ranges are parsed and their DNA sequences
+     * counted in parallel into a ShardedKmerCounter for each length, and the
+     * shards are sorted in parallel. The BTrees are then bulk loaded, so they are
+     * the same files as the ones of a sequential bulk build.
+     * 
+     * @param fileName       is the GeneBank file
+     * @param builders       are the builders of the BTrees, one for each length
+     * @param fillFactor     is the fraction of each node filled with keys
+     * @param threads        is the number of threads
+     * @param directMemory   is the memory limit in bytes of counting directly
+     * @param externalMemory is the memory budget in bytes of the external counting
+     *                       of each length, 0 to count in memory
+     * @param tmpDir         is the directory of the run files, null for the
+     *                       default temporary directory
+     * @param storage        is the storage backend of the BTree files
+     * @throws IOException
+     */
+    private static void parallelCreateBTree(String fileName, KmerTreeBuilder[] builders, double fillFactor,
+	    int threads, long directMemory, long externalMemory, File tmpDir, String storage) throws IOException {
+	long start = System.nanoTime();
+	// more ranges than threads, so a thread with short records takes more ranges
+	long[] boundaries = GeneBankReader.splitRecords(fileName, 4 * threads);
+	ExecutorService executor = Executors.newFixedThreadPool(threads);
+	try {
+	    int[] lengths = new int[builders.length];
+	    boolean canonical = builders[0].isCanonical();
+	    ShardedKmerCounter[] counters = new ShardedKmerCounter[builders.length];
+	    for (int i = 0; i < builders.length; i++) {
+		lengths[i] = builders[i].getLength();
+		counters[i] = new ShardedKmerCounter(lengths[i], 8 * threads, directMemory, externalMemory, tmpDir,
+			executor);
+		builders[i].count(counters[i], fillFactor, storage);
+	    }
+	    List<Future<GeneBankReader>> futures = new ArrayList<Future<GeneBankReader>>();
+	    for (int i = 0; i + 1 < boundaries.length; i++) {
+		final long rangeStart = boundaries[i];
+		final long rangeEnd = boundaries[i + 1];
+		if (rangeStart == rangeEnd) {
+		    continue;
+		}
+		futures.add(executor.submit(() -> {
+		    try (GeneBankReader reader = new GeneBankReader(fileName, rangeStart, rangeEnd)) {
+			ShardedKmerCounter.Batcher[] batchers = new ShardedKmerCounter.Batcher[counters.length];
+			for (int j = 0; j < counters.length; j++) {
+			    batchers[j] = counters[j].newBatcher();
 			}
-			if (inputTree.length() > 0 && !((inputTree.toUpperCase()).contains("N"))) {
-			    long strLong = BinaryFormat.stringBinaryLong(inputTree);
-			    TreeObject local = new TreeObject(strLong);
-
-			    bTree.bTree_insert(local); // calling the insert method
+			reader.parse(new KmerEncoder(lengths, batchers, canonical));
+			for (ShardedKmerCounter.Batcher batcher : batchers) {
+			    batcher.flush();
 			}
+			return reader;
 		    }
-		    inputString = "";
-		    scanLine.close();
-		}
-		if ((line.toUpperCase()).contains("ORIGIN")) {
-		    nextPrint = true;
-		}
+		}));
 	    }
-	    // ** Writing Tree meta-data at last***//
-	    bTree.write_Tree_MetaData();
-	    System.err.println("BTree insert is finished.");
-
-	    // note that Scanner suppresses exceptions
-	    if (scanFile.ioException() != null) {
-		scanFile.ioException();
+	    int records = 0;
+	    long basesRead = 0;
+	    long bytesRead = 0;
+	    for (Future<GeneBankReader> future : futures) {
+		GeneBankReader reader = future.get();
+		records += reader.getRecords();
+		basesRead += reader.getBasesRead();
+		bytesRead += reader.getBytesRead();
 	    }
-	} catch (IOException e) {
-	    System.err.println("File not Found");
-	    printUsage();
-	    System.exit(1);
+	    System.err.println(String.format(
+		    "Parsed and counted %d sequences, %d bases (%d bytes) with %d threads in %d ranges and %d %s shards in %.3f seconds.",
+		    records, basesRead, bytesRead, threads, futures.size(), counters[0].getNumShards(),
+		    counters[0].getShardType(),
+		    (System.nanoTime() - start) / 1e9));
+	    for (KmerTreeBuilder builder : builders) {
+		builder.finish();
+	    }
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new IOException("Interrupted while counting", e);
+	} catch (ExecutionException e) {
+	    if (e.getCause() instanceof IOException) {
+		throw (IOException) e.getCause();
+	    } else if (e.getCause() instanceof UncheckedIOException) {
+		throw ((UncheckedIOException) e.getCause()).getCause(); // a run file could not be spilled
+	    } else if (e.getCause() instanceof IllegalStateException) {
+		throw (IllegalStateException) e.getCause(); // a count table is full
+	    }
+	    throw new IOException("Cannot count a range of the file", e.getCause());
+	} finally {
+	    executor.shutdown();
 	}
-	scanFile.close();
+    }
+
+    /**
+     * Prints the parsing throughput of the GeneBank file on the standard error
+     * stream. It does not include the time spent in the BTree.
+     * 
+     * @param reader is the reader of the GeneBank file
+     */
+    private static void printParseStatistics(GeneBankReader reader) {
+	System.err.println(String.format("Parsed %d sequences, %d bases (%d bytes) in %.3f seconds: %.1f MB/s.",
+		reader.getRecords(), reader.getBasesRead(), reader.getBytesRead(), reader.getParseNanos() / 1e9,
+		reader.getBytesPerSecond() / (1024 * 1024)));
     }
 
     /**
@@ -265,7 +489,25 @@ public class GeneBankCreateBTree {
      */
     private static void printUsage() {
 	System.err.println(
-		"Usage:\nJava GeneBankCreateBTree <0/1(no/with Cache)> <degree> <gbk file> <sequence length> [<cache size>] [<debug level>]");
+		"Usage:\nJava GeneBankCreateBTree <0/1(no/with Cache)> <degree> <gbk file> <sequence length(s)> [<cache size>] [<debug level>] [options]");
+	System.err.println("\nSequence lengths: a length, a range like 6-11 or a list like 6,7,11-15.");
+	System.err.println("The file is parsed once and each length gets its own BTree file.");
+	System.err.println("\nOptions:");
+	System.err.println("--cache-policy=<lru/clock/2q/arc>: eviction policy of the Cache (default lru)");
+	System.err.println("--storage=<raf/channel>: I/O backend of the BTree file (default channel)");
+	System.err.println("--canonical: store each DNA sequence and its reverse complement as one, the smaller key");
+	System.err.println("--bulk: sort all the DNA sequences first and build a packed BTree bottom up");
+	System.err.println("--fill=<fill factor>: fraction of each node filled by --bulk (default 1.0)");
+	System.err.println("--memtable=<keys>: count up to this many DNA sequences in memory before inserting them"
+		+ " (not with --bulk, --fill, --external or --threads)");
+	System.err.println("--direct-memory=<MB>: count short DNA sequences in an array up to this size (default 64)");
+	System.err.println("--threads=<threads>: count the DNA sequences with this many threads, then bulk load;");
+	System.err.println("    about 16 to 32 bytes of memory per distinct DNA sequence, or the --memory budget with --external");
+	System.err.println("--pipeline: read, encode and insert the DNA sequences on three threads");
+	System.err.println("--queue-size=<batches>: size of the queues between the threads of --pipeline (default 8)");
+	System.err.println("--external: count the DNA sequences with an external sort (implies --bulk)");
+	System.err.println("--memory=<MB>: memory budget of --external (default 64)");
+	System.err.println("--tmpdir=<directory>: directory of the temporary files of --external");
 	System.err.println(
 		"\n\nDebug 0: Any diagnostic messages, help and status messages must be be printed on standard error stream.");
 	System.err.println(
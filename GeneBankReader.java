@@ -0,0 +1,274 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * GeneBankReader reads the DNA sequences of a GeneBank file. The file is read
+ * through a FileChannel into a large buffer and scanned byte by byte: a sequence
+ * starts after the ORIGIN line and ends at the "//" line, the coordinate column
+ * and the whitespace are skipped without any tokenizing. The bases are handed to
+ * a SequenceHandler in large blocks.
+ * 
+ * A reader can also be limited to a range of the file which starts and ends at
+ * record boundaries (see splitRecords), so that several readers can parse one
+ * file in parallel.
+ * 
+ * The reader also measures its own throughput. The time spent in the handler is
+ * not counted, so the parsing speed can be compared to the BTree insertion.
+ * 
+ * @author Sajia Zafreen
+ */
+public class GeneBankReader implements Closeable {
+    private static final int READ_BUFFER_SIZE = 1 << 20;
+    private static final int BASE_BUFFER_SIZE = 1 << 16;
+    private static final byte[] ORIGIN = { 'O', 'R', 'I', 'G', 'I', 'N' };
+
+    private FileChannel channel;
+    private long start; // range of the file to parse
+    private long end;
+    private ByteBuffer readBuffer;
+    private byte[] bases;
+    private int numBases; // bases waiting to be handed out
+    private long bytesRead;
+    private long basesRead;
+    private int records;
+    private long parseNanos;
+    private long handlerNanos;
+
+    /**
+     * Constructor of the GeneBankReader
+     * 
+     * @param fileName is the GeneBank file
+     * @throws IOException if the file cannot be opened
+     */
+    public GeneBankReader(String fileName) throws IOException {
+	this(fileName, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Constructor of the GeneBankReader for a range of the file
+     * 
+     * @param fileName is the GeneBank file
+     * @param start    is the first byte of the range, at a record boundary
+     * @param end      is one past the last byte of the range, at a record boundary
+     * @throws IOException if the file cannot be opened
+     */
+    public GeneBankReader(String fileName, long start, long end) throws IOException {
+	this.channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+	this.start = start;
+	this.end = Math.min(end, channel.size());
+	this.readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+	this.bases = new byte[BASE_BUFFER_SIZE];
+    }
+
+    /**
+     * Splits a GeneBank file in ranges of about the same size. Each range but the
+     * first starts just after a "//" line, so no record is split between two
+     * ranges.
+     * 
+     * @param fileName is the GeneBank file
+     * @param parts    is the number of ranges wanted
+     * @return the parts + 1 boundaries of the ranges, some ranges may be empty
+     * @throws IOException if the file cannot be read
+     */
+    public static long[] splitRecords(String fileName, int parts) throws IOException {
+	long[] boundaries = new long[parts + 1];
+	try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+	    long size = channel.size();
+	    ByteBuffer buffer = ByteBuffer.allocate(BASE_BUFFER_SIZE);
+	    boundaries[parts] = size;
+	    for (int part = 1; part < parts; part++) {
+		long target = Math.max(boundaries[part - 1], size / parts * part);
+		boundaries[part] = nextRecord(channel, buffer, target);
+	    }
+	}
+	return boundaries;
+    }
+
+    /**
+     * Finds the first record boundary at or after a position: the byte after the
+     * end of a line which starts with "//"
+     * 
+     * @param channel  is the channel of the file
+     * @param buffer   is a buffer for the reads
+     * @param position is the position to search from
+     * @return the boundary, or the size of the file if there is none
+     * @throws IOException if the file cannot be read
+     */
+    private static long nextRecord(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+	if (position == 0) {
+	    return 0;
+	}
+	// the byte before the position tells if a line starts at the position
+	long offset = position - 1;
+	int column = -1; // column in the current line, -1 until the start of a line
+	boolean endLine = false; // the current line starts with "//"
+	while (true) {
+	    buffer.clear();
+	    int read = channel.read(buffer, offset);
+	    if (read <= 0) {
+		return channel.size();
+	    }
+	    byte[] bytes = buffer.array();
+	    for (int i = 0; i < read; i++) {
+		byte b = bytes[i];
+		if (b == '\n') {
+		    if (endLine) {
+			return offset + i + 1;
+		    }
+		    column = 0;
+		    continue;
+		}
+		if (column >= 0) {
+		    endLine = (column == 0) ? b == '/' : (column == 1) ? endLine && b == '/' : endLine;
+		    column++;
+		}
+	    }
+	    offset += read;
+	}
+    }
+
+    /**
+     * Reads the whole file, or its range, and hands every sequence to the handler.
+     * 
+     * @param handler receives the bases of each sequence
+     * @throws IOException if the file cannot be read
+     */
+    public void parse(SequenceHandler handler) throws IOException {
+	long startTime = System.nanoTime();
+	handlerNanos = 0;
+	boolean inSequence = false;
+	boolean originLine = true; // the current line starts with ORIGIN so far
+	byte first = 0; // first byte of the current line
+	int column = 0;
+
+	channel.position(start);
+	long remaining = end - start;
+	readBuffer.clear();
+	readBuffer.limit((int) Math.min(readBuffer.capacity(), remaining));
+	while (remaining > 0 && channel.read(readBuffer) != -1) {
+	    readBuffer.flip();
+	    byte[] buffer = readBuffer.array();
+	    int limit = readBuffer.limit();
+	    bytesRead += limit;
+	    remaining -= limit;
+	    for (int i = 0; i < limit; i++) {
+		byte b = buffer[i];
+		if (b == '\n') {
+		    if (!inSequence && originLine && column >= ORIGIN.length) {
+			inSequence = true;
+		    }
+		    originLine = true;
+		    column = 0;
+		    continue;
+		}
+		if (column == 0) {
+		    first = b;
+		} else if (column == 1 && first == '/' && b == '/') { // end of the sequence
+		    if (inSequence) {
+			endRecord(handler);
+			inSequence = false;
+		    }
+		}
+		if (column < ORIGIN.length) {
+		    originLine = originLine && b == ORIGIN[column];
+		}
+		column++;
+
+		if (inSequence && ((b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z'))) {
+		    bases[numBases++] = b;
+		    if (numBases == bases.length) {
+			flush(handler);
+		    }
+		}
+	    }
+	    readBuffer.clear();
+	    readBuffer.limit((int) Math.min(readBuffer.capacity(), remaining));
+	}
+	if (inSequence) { // file without the last "//"
+	    endRecord(handler);
+	}
+	parseNanos += System.nanoTime() - startTime - handlerNanos;
+    }
+
+    /**
+     * Hands the waiting bases to the handler
+     * 
+     * @param handler is the handler of the bases
+     */
+    private void flush(SequenceHandler handler) {
+	if (numBases > 0) {
+	    long start = System.nanoTime();
+	    handler.bases(bases, 0, numBases);
+	    handlerNanos += System.nanoTime() - start;
+	    basesRead += numBases;
+	    numBases = 0;
+	}
+    }
+
+    /**
+     * Hands the waiting bases and the end of the sequence to the handler
+     * 
+     * @param handler is the handler of the bases
+     */
+    private void endRecord(SequenceHandler handler) {
+	flush(handler);
+	long start = System.nanoTime();
+	handler.endRecord();
+	handlerNanos += System.nanoTime() - start;
+	records++;
+    }
+
+    /**
+     * Returns the number of bytes read from the file
+     * 
+     * @return the number of bytes read
+     */
+    public long getBytesRead() {
+	return bytesRead;
+    }
+
+    /**
+     * Returns the number of bases handed to the handler
+     * 
+     * @return the number of bases
+     */
+    public long getBasesRead() {
+	return basesRead;
+    }
+
+    /**
+     * Returns the number of sequences read
+     * 
+     * @return the number of sequences
+     */
+    public int getRecords() {
+	return records;
+    }
+
+    /**
+     * Returns the time spent parsing, without the time spent in the handler
+     * 
+     * @return the parsing time in nanoseconds
+     */
+    public long getParseNanos() {
+	return parseNanos;
+    }
+
+    /**
+     * Returns the parsing throughput
+     * 
+     * @return the bytes parsed per second
+     */
+    public double getBytesPerSecond() {
+	return parseNanos == 0 ? 0 : bytesRead * 1e9 / parseNanos;
+    }
+
+    @Override
+    public void close() throws IOException {
+	channel.close();
+    }
+}
@@ -1,9 +1,17 @@
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.io.RandomAccessFile;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * GeneBankSearch searches an entire BTree file for query of particular DNA
@@ -11,6 +19,17 @@ import java.nio.file.Paths;
  * sequence.It means the BTree file tree node's DNA sequence length should be
  * same as the query search sequence length.
  * 
+ * A query ending with * is a prefix query: every DNA sequence of the BTree
+ * starting with the prefix is printed with its frequency, followed by the
+ * total frequency of the prefix.
+ * 
+ * If the BTree was created with --canonical, which its meta_data records, each
+ * query is searched as the smaller of itself and its reverse complement, so it
+ * counts both strands.
+ * 
+ * A BTree of DNA sequences longer than 31 has 128-bit keys, which its meta_data
+ * records; the queries are then encoded to 128-bit keys.
+ * 
  * @author Sajia Zafreen
  */
 
@@ -21,10 +40,71 @@ public class GeneBankSearch {
      * @param args
      */
     public static void main(String[] args) {
+	CommandLineOptions options = new CommandLineOptions(args);
+	args = options.getArguments();
 	if (args.length < 3 || args.length > 5) {
 	    printUsage();
 	    System.exit(1);
 	}
+	String unknownOption = options.unknownOption("cache-policy", "batch", "threads", "storage", "mmap", "length");
+	if (unknownOption != null) {
+	    System.err.println("Unknown option " + unknownOption);
+	    printUsage();
+	    System.exit(1);
+	}
+	String cachePolicy = options.getOption("cache-policy", "lru");
+	try {
+	    BTreeCache.createPolicy(cachePolicy, 2);
+	} catch (IllegalArgumentException e) {
+	    System.err.println("Cache policy should be lru, clock, 2q or arc");
+	    printUsage();
+	    System.exit(1);
+	}
+	String batchPlan = null; // one search per query
+	if (options.hasOption("batch")) {
+	    batchPlan = options.getOption("batch", "");
+	    if (batchPlan.isEmpty()) {
+		batchPlan = "auto";
+	    }
+	    if (!batchPlan.equals("auto") && !batchPlan.equals("descent") && !batchPlan.equals("scan")) {
+		System.err.println("Batch plan should be auto, descent or scan");
+		printUsage();
+		System.exit(1);
+	    }
+	}
+	String storage = options.getOption("storage", BTreeStorage.DEFAULT_STORAGE);
+	if (!storage.equals("raf") && !storage.equals("channel")) {
+	    System.err.println("Storage should be raf or channel");
+	    printUsage();
+	    System.exit(1);
+	}
+	int threads = 1;
+	try {
+	    threads = options.getIntOption("threads", 1);
+	} catch (NumberFormatException e) {
+	    threads = 0;
+	}
+	if (threads < 1) {
+	    System.err.println("Threads should be a number, at least 1");
+	    printUsage();
+	    System.exit(1);
+	} else if (threads > 1 && batchPlan != null) {
+	    System.err.println("--threads cannot be used with --batch");
+	    printUsage();
+	    System.exit(1);
+	}
+	boolean mmap = options.hasOption("mmap");
+	if (mmap && batchPlan != null) {
+	    System.err.println("--mmap cannot be used with --batch");
+	    printUsage();
+	    System.exit(1);
+	}
+	if (storage.equals("raf") && (threads > 1 || mmap)) {
+	    // a RandomAccessFile seeks before each read, so the threads cannot share it
+	    System.err.println("--storage=raf cannot be used with --threads or --mmap, which read the file their own way");
+	    printUsage();
+	    System.exit(1);
+	}
 	int cache;
 	String bTreeFile;
 	String queryFile;
@@ -72,7 +152,33 @@ public class GeneBankSearch {
 	    try {
 		String outputFile = bTreeFile + "_" + queryFile + "_result";
 		String[] parseInput = parseSearch(queryFile);
-		read_BTreeFile(outputFile, bTreeFile, parseInput, debug, cacheSize);
+		int length = 0; // the sequence length, needed by prefix queries only
+		if (hasPrefixQuery(parseInput)) {
+		    if (mmap || threads > 1 || batchPlan != null) {
+			System.err.println("Prefix queries cannot be used with --batch, --threads or --mmap");
+			printUsage();
+			System.exit(1);
+		    }
+		    length = options.getIntOption("length", sequenceLength(bTreeFile));
+		    if (length > BinaryFormat.MAX_LONG_LENGTH) {
+			// the DNA sequences longer than 31 have 128-bit keys
+			System.err.println("Prefix queries cannot be searched in a BTree of 128-bit keys, for "
+				+ "DNA sequences longer than " + BinaryFormat.MAX_LONG_LENGTH);
+			System.exit(1);
+		    } else if (length < 1) {
+			System.err.println("The sequence length of the BTree file is not known, give it with --length");
+			printUsage();
+			System.exit(1);
+		    }
+		}
+		if (mmap) {
+		    searchMapped(outputFile, bTreeFile, parseInput, debug, threads);
+		} else if (threads > 1) {
+		    searchParallel(outputFile, bTreeFile, parseInput, debug, cacheSize, cachePolicy, threads);
+		} else {
+		    read_BTreeFile(outputFile, bTreeFile, parseInput, debug, cacheSize, cachePolicy, batchPlan, storage,
+			    length);
+		}
 		if (debug == 1) {
 		    System.err.println("A Query Result is written to " + outputFile + " file.");
 		}
@@ -89,6 +195,130 @@ public class GeneBankSearch {
 	}
     }
 
+    /**
+     * Returns true if a query is a prefix query, a DNA sequence followed by *
+     * 
+     * @param query is the query
+     * @return true for a prefix query
+     */
+    private static boolean isPrefixQuery(String query) {
+	return query.trim().endsWith("*");
+    }
+
+    /**
+     * Returns true if one of the queries is a prefix query
+     * 
+     * @param parseInput is the parsed array of strings of queries
+     * @return true if there is a prefix query
+     */
+    private static boolean hasPrefixQuery(String[] parseInput) {
+	for (String query : parseInput) {
+	    if (isPrefixQuery(query)) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    /**
+     * Returns the sequence length of a BTree file from its name, which
+     * GeneBankCreateBTree ends with .btree.data.&lt;length&gt;.&lt;degree&gt;
+     * 
+     * @param bTreeFile is the BTree file
+     * @return the sequence length, 0 if the name does not give it
+     */
+    private static int sequenceLength(String bTreeFile) {
+	Matcher matcher = Pattern.compile("\\.btree\\.data\\.(\\d+)\\.\\d+$").matcher(bTreeFile);
+	return matcher.find() ? Integer.parseInt(matcher.group(1)) : 0;
+    }
+
+    /**
+     * Prints every DNA sequence of the BTree starting with the prefix of a prefix
+     * query with its frequency, in increasing order, then the total frequency of
+     * the prefix and the number of DNA sequences found.
+     * 
+     * @param readTree is the BTree
+     * @param query    is the prefix query, the prefix followed by *
+     * @param length   is the length of the DNA sequences of the BTree
+     * @param debug    is the debug level of this search
+     * @param writer   is the writer of the Query result file
+     */
+    private static void searchPrefix(BTree readTree, String query, int length, int debug, PrintWriter writer) {
+	if (readTree.isCanonical()) {
+	    // a prefix of a DNA sequence is a suffix of its reverse complement
+	    System.err.println("Prefix query " + query + " cannot be searched in a BTree of canonical keys");
+	    return;
+	} else if (readTree.isWideKeys()) {
+	    System.err.println("Prefix query " + query + " cannot be searched in a BTree of 128-bit keys");
+	    return;
+	}
+	String prefix = query.trim();
+	prefix = prefix.substring(0, prefix.length() - 1).toLowerCase();
+	if (prefix.length() > length || !prefix.matches("[acgt]*")) {
+	    System.err.println("Prefix query " + query + " should be at most " + length + " of a, c, g and t");
+	    return;
+	}
+	long[] total = new long[2]; // frequency and DNA sequences
+	readTree.bTree_RangeScan(BinaryFormat.prefixLow(prefix, length), BinaryFormat.prefixHigh(prefix, length),
+		(key, frequency) -> {
+		    printLine(BinaryFormat.longBinaryString(key, length) + ": " + frequency, debug, writer);
+		    total[0] += frequency;
+		    total[1]++;
+		});
+	printLine(prefix + "*: " + total[0] + " in " + total[1] + " sequences", debug, writer);
+    }
+
+    /**
+     * Returns the binary key searched for a query
+     * 
+     * @param query     is the query DNA sequence
+     * @param canonical is true if the keys of the BTree are canonical
+     * @return the binary key of the query, or of its reverse complement if it is
+     *         smaller and the BTree is canonical
+     */
+    private static long queryKey(String query, boolean canonical) {
+	long key = BinaryFormat.stringBinaryLong(query);
+	return canonical ? BinaryFormat.canonical(key, BinaryFormat.countBases(query)) : key;
+    }
+
+    /**
+     * Puts the 128-bit key searched for a query in the key array. The high key is
+     * 0 unless the keys of the BTree are 128-bit.
+     * 
+     * @param query     is the query DNA sequence
+     * @param canonical is true if the keys of the BTree are canonical
+     * @param wideKeys  is true if the keys of the BTree are 128-bit
+     * @param key       receives the high key at index 0 and the binary key at
+     *                  index 1
+     */
+    private static void queryKey(String query, boolean canonical, boolean wideKeys, long[] key) {
+	if (!wideKeys) {
+	    key[0] = 0;
+	    key[1] = queryKey(query, canonical);
+	    return;
+	}
+	BinaryFormat.encode(query, 0, query.length(), key);
+	if (canonical) {
+	    BinaryFormat.canonical(key[0], key[1], BinaryFormat.countBases(query), key);
+	}
+    }
+
+    /**
+     * Prints a line of the result on the standard output stream when debug is 0,
+     * otherwise on the Query result file
+     * 
+     * @param line   is the line
+     * @param debug  is the debug level of this search
+     * @param writer is the writer of the Query result file
+     */
+    private static void printLine(String line, int debug, PrintWriter writer) {
+	if (debug == 0) {
+	    System.out.println(line);
+	} else {
+	    writer.println(line);
+	}
+    }
+
     /**
      * Parse the query file
      * 
@@ -102,14 +332,210 @@ public class GeneBankSearch {
 	return parseInput;
     }
 
+    /**
+     * Searches the queries with several threads through one BTreeReader. The
+     * queries are cut into contiguous ranges which the threads take in turn, and
+     * the results are printed in the order of the query file.
+     * 
+     * @param outputFile  is the file where the result of the query sequence is
+     *                    written
+     * @param bTreeFile   is the BTree file which contains the data
+     * @param parseInput  is the parsed array of strings of queries
+     * @param debug       is the debug level of this search
+     * @param cacheSize   is the cache size of this search, shared by the threads
+     * @param cachePolicy is the eviction policy of the cache
+     * @param threads     is the number of threads
+     * @throws IOException
+     */
+    private static void searchParallel(String outputFile, String bTreeFile, String[] parseInput, int debug,
+	    int cacheSize, String cachePolicy, int threads) throws IOException {
+	System.err.println("A query will start now for " + bTreeFile + " file with " + threads + " threads.");
+	long start = System.nanoTime();
+	int[] frequencies = new int[parseInput.length];
+	try (BTreeReader reader = new BTreeReader(bTreeFile, cacheSize, cachePolicy, 4 * threads)) {
+	    boolean canonical = reader.isCanonical();
+	    boolean wideKeys = reader.isWideKeys();
+	    searchRanges(parseInput.length, threads, (from, to) -> {
+		long[] key = new long[2];
+		for (int i = from; i < to; i++) {
+		    queryKey(parseInput[i], canonical, wideKeys, key);
+		    frequencies[i] = reader.search(key[0], key[1]);
+		}
+	    });
+	    System.err.println(String.format("%d queries searched in %.3f seconds.", parseInput.length,
+		    (System.nanoTime() - start) / 1e9));
+	    if (reader.getCacheStatistics() != null) {
+		System.err.println(reader.getCacheStatistics());
+	    }
+	    System.err.println("BTree file: " + reader.getDiskReads() + " node reads, 0 node writes.");
+	}
+	PrintWriter writer = new PrintWriter(new FileWriter(outputFile));
+	printResults(parseInput, frequencies, debug, writer);
+	writer.close();
+    }
+
+    /**
+     * Searches the queries in the BTree file mapped in memory. The nodes are read
+     * in place, so no Cache is used: the page cache of the system holds the
+     * nodes.
+     * 
+     * @param outputFile is the file where the result of the query sequence is
+     *                   written
+     * @param bTreeFile  is the BTree file which contains the data
+     * @param parseInput is the parsed array of strings of queries
+     * @param debug      is the debug level of this search
+     * @param threads    is the number of threads
+     * @throws IOException
+     */
+    private static void searchMapped(String outputFile, String bTreeFile, String[] parseInput, int debug,
+	    int threads) throws IOException {
+	System.err.println("A query will start now for " + bTreeFile + " file mapped in memory.");
+	long start = System.nanoTime();
+	int[] frequencies = new int[parseInput.length];
+	MappedBTree mappedTree = new MappedBTree(bTreeFile);
+	searchRanges(parseInput.length, threads, (from, to) -> {
+	    MappedBTree.NodeView view = mappedTree.newView();
+	    long[] key = new long[2];
+	    for (int i = from; i < to; i++) {
+		queryKey(parseInput[i], mappedTree.isCanonical(), mappedTree.isWideKeys(), key);
+		frequencies[i] = mappedTree.search(key[0], key[1], view);
+	    }
+	});
+	System.err.println(String.format("%d queries searched in %.3f seconds.", parseInput.length,
+		(System.nanoTime() - start) / 1e9));
+	System.err.println("BTree file: " + mappedTree.getMappedLength() + " bytes mapped.");
+	PrintWriter writer = new PrintWriter(new FileWriter(outputFile));
+	printResults(parseInput, frequencies, debug, writer);
+	writer.close();
+    }
+
+    /**
+     * Searches a range of queries
+     */
+    private interface RangeSearch {
+
+	/**
+	 * Searches the queries from the index from to the index to, excluded
+	 * 
+	 * @param from is the first query
+	 * @param to   is one past the last query
+	 * @throws IOException if the BTree file cannot be read
+	 */
+	void search(int from, int to) throws IOException;
+    }
+
+    /**
+     * Cuts the queries into contiguous ranges and searches them with the threads.
+     * With one thread the queries are searched as one range by the calling thread.
+     * 
+     * @param numQueries is the number of queries
+     * @param threads    is the number of threads
+     * @param search     searches a range
+     * @throws IOException if the BTree file cannot be read
+     */
+    private static void searchRanges(int numQueries, int threads, RangeSearch search) throws IOException {
+	if (threads == 1) {
+	    search.search(0, numQueries);
+	    return;
+	}
+	ExecutorService executor = Executors.newFixedThreadPool(threads);
+	try {
+	    // more ranges than threads, so a thread with fast queries takes more ranges
+	    int numRanges = Math.min(numQueries, 4 * threads);
+	    List<Future<?>> futures = new ArrayList<Future<?>>();
+	    for (int range = 0; range < numRanges; range++) {
+		final int from = (int) ((long) numQueries * range / numRanges);
+		final int to = (int) ((long) numQueries * (range + 1) / numRanges);
+		futures.add(executor.submit(() -> {
+		    search.search(from, to);
+		    return null;
+		}));
+	    }
+	    for (Future<?> future : futures) {
+		future.get();
+	    }
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new IOException("Interrupted while searching", e);
+	} catch (ExecutionException e) {
+	    if (e.getCause() instanceof IOException) {
+		throw (IOException) e.getCause();
+	    }
+	    throw new IOException("Cannot search a query", e.getCause());
+	} finally {
+	    executor.shutdown();
+	}
+    }
+
+    /**
+     * Prints the queries found in the BTree with their frequencies, in the order of
+     * the query file
+     * 
+     * @param parseInput  is the parsed array of strings of queries
+     * @param frequencies is the frequency of each query, 0 if it is not found
+     * @param debug       is the debug level of this search
+     * @param writer      is the writer of the Query result file
+     */
+    private static void printResults(String[] parseInput, int[] frequencies, int debug, PrintWriter writer) {
+	for (int i = 0; i < parseInput.length; i++) {
+	    if (frequencies[i] > 0) {
+		printLine(parseInput[i].toLowerCase() + ": " + frequencies[i], debug, writer);
+	    }
+	}
+    }
+
+    /**
+     * Searches all the queries together. The queries are encoded and sorted, the
+     * BTree is searched once with the sorted batch, and the frequencies are given
+     * back in the order of the queries.
+     * 
+     * @param readTree   is the BTree
+     * @param parseInput is the parsed array of strings of queries
+     * @param batchPlan  is the plan of the batch search: auto, descent or scan
+     * @return the frequency of each query, 0 if it is not in the BTree
+     */
+    private static int[] searchBatch(BTree readTree, String[] parseInput, String batchPlan) {
+	long[] keys = new long[parseInput.length];
+	for (int i = 0; i < parseInput.length; i++) {
+	    keys[i] = queryKey(parseInput[i], readTree.isCanonical());
+	}
+	long[] sortedKeys = keys.clone();
+	Arrays.sort(sortedKeys);
+	boolean scan = batchPlan.equals("scan");
+	String reason = ".";
+	if (batchPlan.equals("auto")) {
+	    // the estimate reads sampled nodes, so it is only made for the auto plan
+	    long numKeys = readTree.estimatedNumKeys();
+	    scan = readTree.isScanPlan(keys.length, numKeys);
+	    reason = ", about " + numKeys + " keys in the BTree.";
+	}
+	System.err.println("Batch search of " + keys.length + " queries with the " + (scan ? "scan" : "descent")
+		+ " plan" + reason);
+	int[] sortedFrequencies = scan ? readTree.bTree_ScanBatch(sortedKeys) : readTree.bTree_DescendBatch(sortedKeys);
+	// back to the order of the queries, repeated queries have the same frequency
+	int[] frequencies = new int[keys.length];
+	for (int i = 0; i < keys.length; i++) {
+	    frequencies[i] = sortedFrequencies[Arrays.binarySearch(sortedKeys, keys[i])];
+	}
+	return frequencies;
+    }
+
     /**
      * Prints the usage of this GeneBankSearch.
      */
     private static void printUsage() {
 	System.err.println(
-		"java GeneBankSearch <0/1(no/with Cache)> <btree file> <query file> [<cache size>] [0/1<debug level>]");
+		"java GeneBankSearch <0/1(no/with Cache)> <btree file> <query file> [<cache size>] [0/1<debug level>] [options]");
 	System.err.println("Debug 0: The output of the queries should be printed on the standard output stream");
 	System.err.println("Debug 1: The output of the queries should be printed on a Query result file");
+	System.err.println("A query ending with * (like gatta*) prints every DNA sequence starting with it, then the total");
+	System.err.println("Options:");
+	System.err.println("--cache-policy=<lru/clock/2q/arc>: eviction policy of the Cache (default lru)");
+	System.err.println("--batch[=<auto/descent/scan>]: sort the queries and search them together (default auto)");
+	System.err.println("--storage=<raf/channel>: I/O backend of the BTree file (default channel)");
+	System.err.println("--mmap: map the BTree file in memory and read the nodes in place, without a Cache");
+	System.err.println("--length=<sequence length>: sequence length for prefix queries (default from the file name)");
+	System.err.println("--threads=<threads>: search the queries with this many threads, sharing one Cache");
     }
 
     /**
@@ -121,33 +547,53 @@ public class GeneBankSearch {
      * @param bTreeFile  is the BTree file which contains the data
      * @param parseInput is the parsed array of strings of queries
      * @param debug      is the debug level of this search
-     * @param cacheSize  is the cache size of this search
+     * @param cacheSize   is the cache size of this search
+     * @param cachePolicy is the eviction policy of the cache
+     * @param batchPlan   is the plan of the batch search (auto, descent or scan),
+     *                    null to search the queries one by one
+     * @param storage     is the storage backend of the BTree file
+     * @param length      is the length of the DNA sequences, for the prefix
+     *                    queries
      * @throws IOException
      */
     private static void read_BTreeFile(String outputFile, String bTreeFile, String[] parseInput, int debug,
-	    int cacheSize) throws IOException {
+	    int cacheSize, String cachePolicy, String batchPlan, String storage, int length) throws IOException {
 	System.err.println("A query will start now for " + bTreeFile + " file.");
+	BTreeStorage file = BTreeStorage.open(bTreeFile, false, storage);
+	BTree readTree = new BTree(file, cacheSize, cachePolicy);
 	if (cacheSize > 0) {
-	    System.err.println("A cache of size " + cacheSize + " is implemented.");
+	    System.err.println("A " + readTree.getBTreeCache().getPolicy().getName() + " cache of size " + cacheSize
+		    + " is implemented.");
 	}
-	RandomAccessFile file = new RandomAccessFile(bTreeFile, "r");
-	BTree readTree = new BTree(file, cacheSize);
 	readTree.read_Tree_MetaData();
+	if (batchPlan != null && readTree.isWideKeys()) {
+	    System.err.println("The BTree has 128-bit keys, the queries are searched one by one instead of in a batch.");
+	    batchPlan = null;
+	}
 	PrintWriter writer = new PrintWriter(new FileWriter(outputFile));
-	for (int i = 0; i < parseInput.length; i++) {
-	    long inputLong = BinaryFormat.stringBinaryLong(parseInput[i]);
-	    TreeObject returnObject = readTree.bTree_Search(readTree.getRootNode(), inputLong);
-	    if (returnObject != null) {
-		if (debug == 0) {
-		    System.out.println(parseInput[i].toLowerCase() + ": " + returnObject.getFrequency());
-		} else {
-		    writer.println(parseInput[i].toLowerCase() + ": " + returnObject.getFrequency());
-		}
+	if (batchPlan != null) {
+	    printResults(parseInput, searchBatch(readTree, parseInput, batchPlan), debug, writer);
+	}
+	long[] key = new long[2];
+	for (int i = 0; batchPlan == null && i < parseInput.length; i++) {
+	    if (isPrefixQuery(parseInput[i])) {
+		searchPrefix(readTree, parseInput[i], length, debug, writer);
+		continue;
+	    }
+	    queryKey(parseInput[i], readTree.isCanonical(), readTree.isWideKeys(), key);
+	    int frequency = readTree.bTree_Search(key[0], key[1]);
+	    if (frequency > 0) {
+		printLine(parseInput[i].toLowerCase() + ": " + frequency, debug, writer);
 	    }
 	}
 	file.close();
 	if (writer != null) {
 	    writer.close();
 	}
+	if (readTree.getBTreeCache() != null) {
+	    System.err.println(readTree.getBTreeCache().getStatistics());
+	}
+	System.err.println("BTree file: " + readTree.getDiskReads() + " node reads, " + readTree.getDiskWrites()
+		+ " node writes.");
     }
 }
@@ -0,0 +1,60 @@
+import java.util.Arrays;
+
+/**
+ * KmerCollector is the in memory KmerCounter. It counts the keys as they come
+ * in a KmerCountTable, so the memory grows with the number of distinct keys,
+ * not with the number of keys, and sorts the distinct keys at the end: about
+ * 16 to 32 bytes per distinct key in the table and 8 more for the sort. A
+ * larger input than the table can hold needs an ExternalKmerCounter.
+ * 
+ * @author Sajia Zafreen
+ */
+public class KmerCollector implements KmerCounter {
+    private KmerCountTable table = new KmerCountTable(1 << 12);
+    private long numKeys; // keys, with repeats
+
+    @Override
+    public void accept(long binaryKey) {
+	numKeys++;
+	table.add(binaryKey);
+    }
+
+    /**
+     * Returns the number of keys collected
+     * 
+     * @return the number of keys, with repeats
+     */
+    public long getNumKeys() {
+	return numKeys;
+    }
+
+    @Override
+    public KmerCountIterator sortedCounts() {
+	final long[] sortedKeys = new long[table.size()];
+	table.copyKeys(sortedKeys);
+	Arrays.sort(sortedKeys);
+	return new KmerCountIterator() {
+	    private int index = -1;
+
+	    @Override
+	    public boolean next() {
+		return ++index < sortedKeys.length;
+	    }
+
+	    @Override
+	    public long getKey() {
+		return sortedKeys[index];
+	    }
+
+	    @Override
+	    public int getCount() {
+		return table.getCount(sortedKeys[index]);
+	    }
+
+	    @Override
+	    public long size() {
+		return sortedKeys.length;
+	    }
+	};
+    }
+}
@@ -0,0 +1,16 @@
+/**
+ * KmerCountConsumer receives DNA sequence keys and their counts, as they are
+ * streamed out of a BTree scan.
+ * 
+ * @author Sajia Zafreen
+ */
+public interface KmerCountConsumer {
+
+    /**
+     * Receives a key and its count
+     * 
+     * @param binaryKey is the binary key of the DNA sequence
+     * @param count     is the number of times the key was found
+     */
+    void accept(long binaryKey, int count);
+}
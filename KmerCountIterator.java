@@ -0,0 +1,40 @@
+import java.io.IOException;
+
+/**
+ * KmerCountIterator walks over distinct DNA sequence keys and their counts in
+ * increasing key order.
+ * 
+ * @author Sajia Zafreen
+ */
+public interface KmerCountIterator {
+
+    /**
+     * Moves to the next key
+     * 
+     * @return false if there is no more key
+     * @throws IOException if the keys cannot be read
+     */
+    boolean next() throws IOException;
+
+    /**
+     * Returns the current key
+     * 
+     * @return the binary key of the DNA sequence
+     */
+    long getKey();
+
+    /**
+     * Returns the count of the current key
+     * 
+     * @return the number of times the key was found
+     */
+    int getCount();
+
+    /**
+     * Returns the number of distinct keys of the whole iteration, if it is known
+     * before the end
+     * 
+     * @return the number of keys, -1 if it is not known
+     */
+    long size();
+}
@@ -0,0 +1,143 @@
+import java.util.Arrays;
+
+/**
+ * KmerCountTable counts binary keys in memory. It is an open addressing hash
+ * table with linear probing over two primitive arrays, a long[] of keys and an
+ * int[] of counts, so no object is created per key and a repeated key only
+ * increments its count. A binary key uses at most 62 bits, so -1 marks an empty
+ * slot. The table doubles when it is three quarters full, up to 3 * 2^28
+ * distinct keys, about 12 bytes each.
+ * 
+ * @author Sajia Zafreen
+ */
+public class KmerCountTable {
+    private static final long EMPTY = -1L;
+    private static final int MAX_SLOTS = 1 << 30;
+
+    private long[] keys;
+    private int[] counts;
+    private int mask;
+    private int size; // distinct keys
+
+    /**
+     * Constructor of the KmerCountTable
+     * 
+     * @param capacity is the number of distinct keys held before the table grows
+     */
+    public KmerCountTable(int capacity) {
+	// at most three quarters of the slots are used
+	allocate(Integer.highestOneBit(Math.max(2, capacity + capacity / 3) - 1) << 1);
+    }
+
+    /**
+     * Allocates an empty table
+     * 
+     * @param slots is the number of slots, a power of two
+     */
+    private void allocate(int slots) {
+	keys = new long[slots];
+	counts = new int[slots];
+	mask = slots - 1;
+	Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * Counts one more of a key
+     * 
+     * @param binaryKey is the binary key of the DNA sequence
+     * @return true if the key was not in the table
+     */
+    public boolean add(long binaryKey) {
+	int slot = slot(binaryKey);
+	if (keys[slot] == binaryKey) {
+	    counts[slot]++;
+	    return false;
+	}
+	keys[slot] = binaryKey;
+	counts[slot] = 1;
+	if (++size > keys.length - (keys.length >> 2)) {
+	    grow();
+	}
+	return true;
+    }
+
+    /**
+     * Returns the count of a key
+     * 
+     * @param binaryKey is the binary key of the DNA sequence
+     * @return the count, 0 if the key is not in the table
+     */
+    public int getCount(long binaryKey) {
+	int slot = slot(binaryKey);
+	return keys[slot] == binaryKey ? counts[slot] : 0;
+    }
+
+    /**
+     * Returns the number of distinct keys of the table
+     * 
+     * @return the number of keys
+     */
+    public int size() {
+	return size;
+    }
+
+    /**
+     * Copies the distinct keys of the table, in no particular order
+     * 
+     * @param target is the array receiving the keys, at least size() long
+     * @return the number of keys copied
+     */
+    public int copyKeys(long[] target) {
+	int numKeys = 0;
+	for (int slot = 0; slot < keys.length; slot++) {
+	    if (keys[slot] != EMPTY) {
+		target[numKeys++] = keys[slot];
+	    }
+	}
+	return numKeys;
+    }
+
+    /**
+     * Empties the table, keeping its slots
+     */
+    public void clear() {
+	Arrays.fill(keys, EMPTY);
+	size = 0;
+    }
+
+    /**
+     * Returns the slot of the key: the slot holding it, or the empty slot where it
+     * belongs
+     * 
+     * @param binaryKey is the binary key of the DNA sequence
+     * @return the index of the slot
+     */
+    private int slot(long binaryKey) {
+	// Fibonacci hashing, the high bits of the product are the best mixed
+	int slot = (int) ((binaryKey * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+	while (keys[slot] != EMPTY && keys[slot] != binaryKey) {
+	    slot = (slot + 1) & mask;
+	}
+	return slot;
+    }
+
+    /**
+     * Doubles the table and moves the keys to their new slots
+     */
+    private void grow() {
+	if (keys.length == MAX_SLOTS) {
+	    throw new IllegalStateException(
+		    "More than " + size + " distinct DNA sequences to count in memory, use --external");
+	}
+	long[] oldKeys = keys;
+	int[] oldCounts = counts;
+	allocate(keys.length * 2);
+	for (int i = 0; i < oldKeys.length; i++) {
+	    if (oldKeys[i] != EMPTY) {
+		int slot = slot(oldKeys[i]);
+		keys[slot] = oldKeys[i];
+		counts[slot] = oldCounts[i];
+	    }
+	}
+    }
+}
@@ -0,0 +1,19 @@
+import java.io.IOException;
+import java.util.function.LongConsumer;
+
+/**
+ * KmerCounter counts the binary keys of the DNA sequences it accepts, and gives
+ * them back sorted with their counts, ready for BTreeBulkLoader.
+ * 
+ * @author Sajia Zafreen
+ */
+public interface KmerCounter extends LongConsumer {
+
+    /**
+     * Ends the counting and returns the distinct keys in increasing order
+     * 
+     * @return the keys with their counts
+     * @throws IOException if the counts cannot be read back
+     */
+    KmerCountIterator sortedCounts() throws IOException;
+}
@@ -0,0 +1,140 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * KmerDumpWriter writes the lines of a dump file, "DNA string: frequency". The
+ * DNA string and the frequency are formatted straight from the binary key and
+ * the int into one large byte buffer, which is written to the channel when it
+ * is full, so no String is created per line.
+ * 
+ * @author Sajia Zafreen
+ */
+public class KmerDumpWriter implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private WritableByteChannel channel;
+    private boolean closeChannel;
+    private int length;
+    private int maxLine; // DNA string, ": ", int and newline
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private byte[] bases;
+    private byte[] digits = new byte[11];
+
+    /**
+     * Constructor of the KmerDumpWriter for a new dump file
+     * 
+     * @param fileName is the dump file, replaced if it exists
+     * @param length   is the length of the DNA sequences
+     * @throws IOException if the file cannot be created
+     */
+    public KmerDumpWriter(String fileName, int length) throws IOException {
+	this(FileChannel.open(Paths.get(fileName), StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+		StandardOpenOption.TRUNCATE_EXISTING), length);
+	this.closeChannel = true;
+    }
+
+    /**
+     * Constructor of the KmerDumpWriter on a channel, which is not closed with the
+     * writer
+     * 
+     * @param channel is the channel, like Channels.newChannel(System.out)
+     * @param length  is the length of the DNA sequences
+     */
+    public KmerDumpWriter(WritableByteChannel channel, int length) {
+	this.channel = channel;
+	this.length = length;
+	this.maxLine = length + 2 + 11 + 1;
+	this.bases = new byte[length];
+    }
+
+    /**
+     * Writes the line of a key
+     * 
+     * @param binaryKey is the binary key of the DNA sequence
+     * @param frequency is the frequency of the key
+     * @throws IOException if the buffer cannot be written
+     */
+    public void write(long binaryKey, int frequency) throws IOException {
+	write(0, binaryKey, frequency);
+    }
+
+    /**
+     * Writes the line of a 128-bit key
+     * 
+     * @param highKey   is the high key of the DNA sequence, 0 if it is not longer
+     *                  than 32
+     * @param binaryKey is the binary key of the DNA sequence
+     * @param frequency is the frequency of the key
+     * @throws IOException if the buffer cannot be written
+     */
+    public void write(long highKey, long binaryKey, int frequency) throws IOException {
+	if (buffer.remaining() < maxLine) {
+	    flush();
+	}
+	BinaryFormat.decode(highKey, binaryKey, length, bases, 0);
+	buffer.put(bases);
+	buffer.put((byte) ':');
+	buffer.put((byte) ' ');
+	long value = frequency;
+	if (value < 0) {
+	    buffer.put((byte) '-');
+	    value = -value;
+	}
+	int numDigits = 0;
+	do {
+	    digits[numDigits++] = (byte) ('0' + value % 10);
+	    value /= 10;
+	} while (value > 0);
+	while (numDigits > 0) {
+	    buffer.put(digits[--numDigits]);
+	}
+	buffer.put((byte) '\n');
+    }
+
+    /**
+     * Writes all the keys of a cursor
+     * 
+     * @param cursor is the cursor
+     * @return the number of keys written
+     * @throws IOException if the buffer cannot be written
+     */
+    public long writeAll(BTreeCursor cursor) throws IOException {
+	long numKeys = 0;
+	while (cursor.next()) {
+	    write(cursor.getHighKey(), cursor.getKey(), cursor.getFrequency());
+	    numKeys++;
+	}
+	return numKeys;
+    }
+
+    /**
+     * Writes the buffered lines to the channel
+     * 
+     * @throws IOException if the buffer cannot be written
+     */
+    public void flush() throws IOException {
+	buffer.flip();
+	while (buffer.hasRemaining()) {
+	    channel.write(buffer);
+	}
+	buffer.clear();
+    }
+
+    /**
+     * Writes the buffered lines, and closes the dump file if the writer opened it
+     * 
+     * @throws IOException if the buffer cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+	flush();
+	if (closeChannel) {
+	    channel.close();
+	}
+    }
+}
@@ -0,0 +1,254 @@
+import java.util.function.LongConsumer;
+
+/**
+ * KmerEncoder extracts every DNA subsequence of a given length from a stream of
+ * bases. The current window is kept as a rolling 2-bit binary key in a long, one
+ * base is shifted in at a time and every complete window is handed to the sink
+ * as a primitive long. No strings or TreeObjects are created per window.
+ * 
+ * An encoder can extract several lengths at once from the same rolling key: the
+ * key holds the longest window, and the window of each shorter length is its
+ * low bits. Each length has its own sink.
+ * 
+ * In canonical mode the reverse complement of the window is rolled along with
+ * it, the complement of each base shifted in at the top, and the sink is given
+ * the smaller of the two keys, so a DNA sequence and its reverse complement
+ * count as one.
+ * 
+ * If the longest length is above 31 the window is rolled in 128 bits, a high
+ * key for the bases before the last 32 and the binary key for the last 32. The
+ * keys of the lengths above 31 go to their WideKeyConsumer, the keys of the
+ * shorter lengths still go to their LongConsumer.
+ * 
+ * A window is never formed across an N (or any other base which is not A, T, C
+ * or G); the encoder restarts after such a base. KmerEncoder is a
+ * SequenceHandler, so a GeneBankReader can feed it directly.
+ * 
+ * @author Sajia Zafreen
+ */
+public class KmerEncoder implements SequenceHandler {
+    private final int[] lengths;
+    private final long[] masks; // 2 * length low bits
+    private final int[] reverseShifts; // from the longest reverse complement to the one of each length
+    private final LongConsumer[] sinks;
+    private final WideKeyConsumer[] wideSinks; // for the lengths above 31
+    private final long[] highMasks; // 2 * (length - 32) low bits of the high key
+    private final int maxLength;
+    private final long keyMask; // 2 * maxLength low bits
+    private final long highKeyMask; // 2 * (maxLength - 32) low bits
+    private final boolean canonical;
+    private final boolean wide; // the window is rolled in 128 bits
+    private long binaryKey;
+    private long highKey;
+    private long reverseKey; // reverse complement of the longest window
+    private long reverseHigh;
+    private int validBases; // bases shifted in since the last reset
+
+    /**
+     * Constructor of the KmerEncoder
+     * 
+     * @param length is the length of the DNA sequence, between 1 and 31 inclusive
+     * @param sink   is the consumer of the binary keys of each window
+     */
+    public KmerEncoder(int length, LongConsumer sink) {
+	this(new int[] { length }, new LongConsumer[] { sink });
+    }
+
+    /**
+     * Constructor of the KmerEncoder for several lengths
+     * 
+     * @param lengths are the lengths of the DNA sequences, between 1 and 31
+     *                inclusive
+     * @param sinks   are the consumers of the binary keys, one for each length
+     */
+    public KmerEncoder(int[] lengths, LongConsumer[] sinks) {
+	this(lengths, sinks, false);
+    }
+
+    /**
+     * Constructor of the KmerEncoder for several lengths, in canonical mode or not
+     * 
+     * @param lengths   are the lengths of the DNA sequences, between 1 and 31
+     *                  inclusive
+     * @param sinks     are the consumers of the binary keys, one for each length
+     * @param canonical is true to give the canonical key of each window
+     */
+    public KmerEncoder(int[] lengths, LongConsumer[] sinks, boolean canonical) {
+	this(lengths, sinks, new WideKeyConsumer[lengths.length], canonical);
+    }
+
+    /**
+     * Constructor of the KmerEncoder for several lengths, up to 63
+     * 
+     * @param lengths   are the lengths of the DNA sequences, between 1 and 63
+     *                  inclusive
+     * @param sinks     are the consumers of the binary keys of the lengths up to
+     *                  31, one for each length
+     * @param wideSinks are the consumers of the 128-bit keys of the lengths above
+     *                  31, one for each length
+     * @param canonical is true to give the canonical key of each window
+     */
+    public KmerEncoder(int[] lengths, LongConsumer[] sinks, WideKeyConsumer[] wideSinks, boolean canonical) {
+	this.lengths = lengths.clone();
+	this.sinks = sinks.clone();
+	this.wideSinks = wideSinks.clone();
+	this.canonical = canonical;
+	this.masks = new long[lengths.length];
+	this.highMasks = new long[lengths.length];
+	int longest = 0;
+	for (int i = 0; i < lengths.length; i++) {
+	    masks[i] = lengths[i] >= 32 ? -1L : (1L << (2 * lengths[i])) - 1;
+	    highMasks[i] = lengths[i] > 32 ? (1L << (2 * (lengths[i] - 32))) - 1 : 0;
+	    longest = Math.max(longest, lengths[i]);
+	}
+	this.maxLength = longest;
+	this.wide = longest > BinaryFormat.MAX_LONG_LENGTH;
+	this.keyMask = wide ? -1L : (1L << (2 * longest)) - 1;
+	this.highKeyMask = longest > 32 ? (1L << (2 * (longest - 32))) - 1 : 0;
+	// the window of a shorter length is the end of the longest window, so its
+	// reverse complement is the top of the longest reverse complement
+	this.reverseShifts = new int[lengths.length];
+	for (int i = 0; i < lengths.length; i++) {
+	    reverseShifts[i] = 2 * (longest - lengths[i]);
+	}
+	reset();
+    }
+
+    /**
+     * Forgets the current window. Used at the end of a sequence so that no window
+     * is formed across two sequences.
+     */
+    public void reset() {
+	binaryKey = 0;
+	highKey = 0;
+	reverseKey = 0;
+	reverseHigh = 0;
+	validBases = 0;
+    }
+
+    /**
+     * Shifts one base into the window. The binary key of each complete window is
+     * passed to the sink of its length.
+     * 
+     * @param base is the base character (upper or lower case)
+     */
+    public void shift(int base) {
+	int code;
+	switch (base) {
+	// A and T are pairs
+	case 'A':
+	case 'a':
+	    code = 0;
+	    break;
+	case 'T':
+	case 't':
+	    code = 3;
+	    break;
+	case 'C':
+	case 'c':
+	    code = 1;
+	    break;
+	case 'G':
+	case 'g':
+	    code = 2;
+	    break;
+	default: // N or unknown base, no window can contain it
+	    reset();
+	    return;
+	}
+	if (wide) {
+	    shiftWide(code);
+	    return;
+	}
+	binaryKey = ((binaryKey << 2) | code) & keyMask;
+	reverseKey = (reverseKey >>> 2) | ((long) (code ^ 3) << (2 * (maxLength - 1)));
+	if (validBases < maxLength) {
+	    validBases++;
+	}
+	for (int i = 0; i < lengths.length; i++) {
+	    if (validBases >= lengths[i]) {
+		long key = binaryKey & masks[i];
+		if (canonical) {
+		    key = Math.min(key, reverseKey >>> reverseShifts[i]);
+		}
+		sinks[i].accept(key);
+	    }
+	}
+    }
+
+    /**
+     * Shifts the code of one base into the 128-bit window, and passes the keys of
+     * each complete window to the sink of its length
+     * 
+     * @param code is the 2-bit code of the base
+     */
+    private void shiftWide(int code) {
+	highKey = ((highKey << 2) | (binaryKey >>> 62)) & highKeyMask;
+	binaryKey = (binaryKey << 2) | code;
+	// the complement goes in at the top of the reverse complement, base
+	// maxLength - 1 counted from the bottom
+	reverseKey = (reverseKey >>> 2) | (reverseHigh << 62);
+	reverseHigh >>>= 2;
+	int top = 2 * (maxLength - 1);
+	if (top >= 64) {
+	    reverseHigh |= (long) (code ^ 3) << (top - 64);
+	} else {
+	    reverseKey |= (long) (code ^ 3) << top;
+	}
+	if (validBases < maxLength) {
+	    validBases++;
+	}
+	for (int i = 0; i < lengths.length; i++) {
+	    if (validBases < lengths[i]) {
+		continue;
+	    }
+	    long key = binaryKey & masks[i];
+	    long high = highKey & highMasks[i];
+	    if (canonical) {
+		int shift = reverseShifts[i];
+		long reverse;
+		long reverseTop;
+		if (shift == 0) {
+		    reverse = reverseKey;
+		    reverseTop = reverseHigh;
+		} else if (shift < 64) {
+		    reverse = (reverseKey >>> shift) | (reverseHigh << (64 - shift));
+		    reverseTop = reverseHigh >>> shift;
+		} else {
+		    reverse = reverseHigh >>> (shift - 64);
+		    reverseTop = 0;
+		}
+		if (BinaryFormat.compareKeys(reverseTop, reverse, high, key) < 0) {
+		    key = reverse;
+		    high = reverseTop;
+		}
+	    }
+	    if (lengths[i] > BinaryFormat.MAX_LONG_LENGTH) {
+		wideSinks[i].accept(high, key);
+	    } else {
+		sinks[i].accept(key);
+	    }
+	}
+    }
+
+    @Override
+    public void bases(byte[] bases, int offset, int length) {
+	for (int i = offset; i < offset + length; i++) {
+	    shift(bases[i]);
+	}
+    }
+
+    @Override
+    public void endRecord() {
+	reset();
+    }
+
+    /**
+     * Returns the length of the DNA sequence, the longest one if there are several
+     * 
+     * @return the length of the DNA sequence
+     */
+    public int getLength() {
+	return maxLength;
+    }
+}
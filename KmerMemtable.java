@@ -0,0 +1,95 @@
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * KmerMemtable counts DNA sequences in memory in front of a BTree. Repeats of a
+ * sequence only increment a count in the table, and when the table holds its
+ * capacity of distinct sequences it is flushed to the BTree in increasing key
+ * order, each sequence inserted once with its count as frequency.
+ * 
+ * The table is a KmerCountTable, so no object is created per sequence.
+ * 
+ * @author Sajia Zafreen
+ */
+public class KmerMemtable implements LongConsumer {
+    private BTree bTree;
+    private int capacity; // distinct keys held before a flush
+    private KmerCountTable table;
+    private long[] sortedKeys; // scratch array of the flush
+
+    // statistics
+    private long numKeys;
+    private long numInserts;
+    private int numFlushes;
+
+    /**
+     * Constructor of the KmerMemtable
+     * 
+     * @param capacity is the number of distinct keys held before a flush
+     * @param bTree    is the BTree the keys are flushed to
+     */
+    public KmerMemtable(int capacity, BTree bTree) {
+	if (capacity < 1 || capacity > (1 << 29)) {
+	    throw new IllegalArgumentException("Memtable capacity should be between 1 and " + (1 << 29));
+	}
+	this.capacity = capacity;
+	this.bTree = bTree;
+	table = new KmerCountTable(capacity);
+	sortedKeys = new long[capacity];
+    }
+
+    @Override
+    public void accept(long binaryKey) {
+	numKeys++;
+	if (table.add(binaryKey) && table.size() == capacity) {
+	    flush();
+	}
+    }
+
+    /**
+     * Inserts all the keys of the table in the BTree in increasing order with their
+     * counts, and empties the table
+     */
+    public void flush() {
+	if (table.size() == 0) {
+	    return;
+	}
+	int numSorted = table.copyKeys(sortedKeys);
+	Arrays.sort(sortedKeys, 0, numSorted);
+	for (int i = 0; i < numSorted; i++) {
+	    bTree.bTree_insert(sortedKeys[i], table.getCount(sortedKeys[i]));
+	}
+	numInserts += numSorted;
+	numFlushes++;
+	table.clear();
+    }
+
+    /**
+     * Returns the number of keys accepted, with repeats
+     * 
+     * @return the number of keys
+     */
+    public long getNumKeys() {
+	return numKeys;
+    }
+
+    /**
+     * Returns the number of BTree inserts done by the flushes
+     * 
+     * @return the number of inserts
+     */
+    public long getNumInserts() {
+	return numInserts;
+    }
+
+    /**
+     * Returns the statistics of the memtable
+     * 
+     * @return the statistics as a line of text
+     */
+    public String getStatistics() {
+	return String.format(
+		"Memtable of %d keys: %d sequences in %d BTree inserts (%d flushes), %d BTree operations saved.", capacity,
+		numKeys, numInserts, numFlushes, numKeys - numInserts);
+    }
+}
@@ -0,0 +1,446 @@
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.LongConsumer;
+
+/**
+ * KmerPipeline runs the parsing of a GeneBank file, the encoding of its DNA
+ * sequences and the BTree in three stages on three threads, so the disk and the
+ * CPU are busy at the same time:
+ * 
+ * reader thread: GeneBankReader -> chunks of bases -> encoder thread:
+ * KmerEncoder -> batches of binary keys -> writer (the calling thread): sink
+ * 
+ * The stages are connected by bounded queues of chunks and batches. The chunks
+ * and batches are recycled through a second queue for each kind, so a stage
+ * which is ahead blocks until the next stage gives a buffer back, and no buffer
+ * is allocated after the start. Only the calling thread calls the sink, so the
+ * sink (BTree insert, memtable or counter) does not need to be thread safe.
+ * 
+ * Several lengths can be extracted at once; each has its own sink, and each batch
+ * holds the keys of one length.
+ * 
+ * Each stage records its busy time and the time it waited on each queue, and
+ * the queues are sampled at each take, which shows which stage is the
+ * bottleneck.
+ * 
+ * @author Sajia Zafreen
+ */
+public class KmerPipeline {
+    private static final int CHUNK_SIZE = 1 << 16; // bases per chunk
+    private static final int BATCH_SIZE = 1 << 12; // keys per batch
+
+    private String fileName;
+    private int[] lengths;
+    private int queueSize;
+    private boolean canonical;
+
+    private BlockingQueue<Chunk> chunks; // full chunks, reader to encoder
+    private BlockingQueue<Chunk> freeChunks;
+    private BlockingQueue<Batch> batches; // full batches, encoder to writer
+    private BlockingQueue<Batch> freeBatches;
+
+    private volatile Throwable failure;
+    private GeneBankReader reader;
+    private Stage readerStage = new Stage("Reader");
+    private Stage encoderStage = new Stage("Encoder");
+    private Stage writerStage = new Stage("Writer");
+
+    /**
+     * Constructor of the KmerPipeline
+     * 
+     * @param fileName  is the GeneBank file
+     * @param lengths   are the lengths of the DNA sequences
+     * @param queueSize is the number of chunks or batches each queue can hold
+     */
+    public KmerPipeline(String fileName, int[] lengths, int queueSize) {
+	this.fileName = fileName;
+	this.lengths = lengths.clone();
+	this.queueSize = queueSize;
+    }
+
+    /**
+     * Constructor of the KmerPipeline, in canonical mode or not
+     * 
+     * @param fileName  is the GeneBank file
+     * @param lengths   are the lengths of the DNA sequences
+     * @param queueSize is the number of chunks or batches each queue can hold
+     * @param canonical is true to give the canonical key of each DNA sequence
+     */
+    public KmerPipeline(String fileName, int[] lengths, int queueSize, boolean canonical) {
+	this(fileName, lengths, queueSize);
+	this.canonical = canonical;
+    }
+
+    /**
+     * Reads the whole file and hands the binary key of every DNA sequence to the
+     * sink of its length, on the calling thread.
+     * 
+     * @param sinks receive the binary keys, one for each length
+     * @throws IOException if the file cannot be read
+     */
+    public void run(LongConsumer[] sinks) throws IOException {
+	chunks = new ArrayBlockingQueue<Chunk>(queueSize);
+	freeChunks = new ArrayBlockingQueue<Chunk>(queueSize + 2);
+	for (int i = 0; i < queueSize + 2; i++) { // one more in use at each end
+	    freeChunks.add(new Chunk());
+	}
+	batches = new ArrayBlockingQueue<Batch>(queueSize);
+	// each length fills its own batch
+	int numBatches = queueSize + lengths.length + 1;
+	freeBatches = new ArrayBlockingQueue<Batch>(numBatches);
+	for (int i = 0; i < numBatches; i++) {
+	    freeBatches.add(new Batch());
+	}
+	reader = new GeneBankReader(fileName);
+	Thread readerThread = new Thread(this::read, "GeneBankReader");
+	Thread encoderThread = new Thread(this::encode, "KmerEncoder");
+	readerThread.setDaemon(true);
+	encoderThread.setDaemon(true);
+	readerThread.start();
+	encoderThread.start();
+	try {
+	    write(sinks);
+	    readerThread.join();
+	    encoderThread.join();
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new IOException("Interrupted while writing", e);
+	} finally {
+	    // a stage blocked on a queue would never see the end
+	    readerThread.interrupt();
+	    encoderThread.interrupt();
+	    reader.close();
+	}
+	if (failure instanceof IOException) {
+	    throw (IOException) failure;
+	} else if (failure != null) {
+	    throw new IOException("Pipeline stage failed", failure);
+	}
+    }
+
+    /**
+     * The reader stage. It parses the file into chunks of bases, and sends a last
+     * chunk at the end even if the parsing failed.
+     */
+    private void read() {
+	long start = System.nanoTime();
+	ChunkWriter writer = new ChunkWriter();
+	try {
+	    reader.parse(writer);
+	} catch (Throwable e) {
+	    failure = e;
+	} finally {
+	    try {
+		writer.finish();
+	    } catch (InterruptedException e) {
+		// the pipeline was stopped
+	    }
+	    readerStage.busyNanos = System.nanoTime() - start - readerStage.waitNanos;
+	    readerStage.units = reader.getBytesRead();
+	}
+    }
+
+    /**
+     * The encoder stage. It encodes the chunks into batches of binary keys, and
+     * sends a last batch at the end.
+     */
+    private void encode() {
+	long start = System.nanoTime();
+	BatchWriter[] writers = new BatchWriter[lengths.length];
+	for (int i = 0; i < writers.length; i++) {
+	    writers[i] = new BatchWriter(i);
+	}
+	KmerEncoder encoder = new KmerEncoder(lengths, writers, canonical);
+	try {
+	    for (BatchWriter writer : writers) {
+		writer.current = take(freeBatches, encoderStage);
+	    }
+	    while (true) {
+		Chunk chunk = take(chunks, encoderStage);
+		encoderStage.sample(chunks.size(), queueSize);
+		encoder.bases(chunk.bases, 0, chunk.length);
+		encoderStage.units += chunk.length;
+		if (chunk.endRecord) {
+		    encoder.endRecord();
+		}
+		if (chunk.last) {
+		    break;
+		}
+		chunk.length = 0;
+		freeChunks.put(chunk);
+	    }
+	    for (BatchWriter writer : writers) {
+		writer.send();
+	    }
+	    sendLast();
+	} catch (InterruptedException e) {
+	    // the pipeline was stopped
+	} catch (Throwable e) {
+	    failure = e;
+	    try {
+		sendLast();
+	    } catch (InterruptedException stopped) {
+		// the pipeline was stopped
+	    }
+	} finally {
+	    encoderStage.busyNanos = System.nanoTime() - start - encoderStage.waitNanos;
+	}
+    }
+
+    /**
+     * Sends the empty batch which ends the encoder stage
+     * 
+     * @throws InterruptedException if the thread is interrupted
+     */
+    private void sendLast() throws InterruptedException {
+	Batch last = take(freeBatches, encoderStage);
+	last.last = true;
+	batches.put(last);
+    }
+
+    /**
+     * The writer stage. It hands the keys of the batches to the sinks.
+     * 
+     * @param sinks receive the binary keys, one for each length
+     * @throws InterruptedException if the thread is interrupted
+     */
+    private void write(LongConsumer[] sinks) throws InterruptedException {
+	long start = System.nanoTime();
+	try {
+	    while (true) {
+		Batch batch = take(batches, writerStage);
+		writerStage.sample(batches.size(), queueSize);
+		LongConsumer sink = sinks[batch.output];
+		for (int i = 0; i < batch.size; i++) {
+		    sink.accept(batch.keys[i]);
+		}
+		writerStage.units += batch.size;
+		if (batch.last) {
+		    break;
+		}
+		batch.size = 0;
+		freeBatches.put(batch);
+	    }
+	} finally {
+	    writerStage.busyNanos = System.nanoTime() - start - writerStage.waitNanos;
+	}
+    }
+
+    /**
+     * Takes the head of a queue, counting the time waited
+     * 
+     * @param queue is the queue
+     * @param stage is the stage waiting
+     * @return the head of the queue
+     * @throws InterruptedException if the thread is interrupted
+     */
+    private static <T> T take(BlockingQueue<T> queue, Stage stage) throws InterruptedException {
+	long start = System.nanoTime();
+	T item = queue.take();
+	stage.waitNanos += System.nanoTime() - start;
+	return item;
+    }
+
+    /**
+     * Returns the reader of the GeneBank file, for its statistics
+     * 
+     * @return the reader
+     */
+    public GeneBankReader getReader() {
+	return reader;
+    }
+
+    /**
+     * Returns the statistics of the stages, one line per stage
+     * 
+     * @return the statistics
+     */
+    public String getStatistics() {
+	return readerStage.toString("bytes") + "\n" + encoderStage.toString("bases") + "\n"
+		+ writerStage.toString("keys");
+    }
+
+    /**
+     * Puts the bases handed by the GeneBankReader into chunks
+     */
+    private class ChunkWriter implements SequenceHandler {
+	private Chunk current;
+
+	@Override
+	public void bases(byte[] bases, int offset, int length) {
+	    try {
+		while (length > 0) {
+		    if (current == null) {
+			current = take(freeChunks, readerStage);
+		    }
+		    int copy = Math.min(length, CHUNK_SIZE - current.length);
+		    System.arraycopy(bases, offset, current.bases, current.length, copy);
+		    current.length += copy;
+		    offset += copy;
+		    length -= copy;
+		    if (current.length == CHUNK_SIZE) {
+			send(false);
+		    }
+		}
+	    } catch (InterruptedException e) {
+		throw new IllegalStateException("Pipeline stopped", e);
+	    }
+	}
+
+	@Override
+	public void endRecord() {
+	    try {
+		send(true);
+	    } catch (InterruptedException e) {
+		throw new IllegalStateException("Pipeline stopped", e);
+	    }
+	}
+
+	/**
+	 * Sends the last chunk to the encoder, empty unless the parsing failed
+	 * 
+	 * @throws InterruptedException if the thread is interrupted
+	 */
+	private void finish() throws InterruptedException {
+	    if (current == null) {
+		current = take(freeChunks, readerStage);
+	    }
+	    current.last = true;
+	    send(true);
+	}
+
+	/**
+	 * Sends the current chunk to the encoder
+	 * 
+	 * @param endRecord is true if the chunk ends a sequence
+	 * @throws InterruptedException if the thread is interrupted
+	 */
+	private void send(boolean endRecord) throws InterruptedException {
+	    if (current == null) {
+		if (!endRecord) {
+		    return;
+		}
+		current = take(freeChunks, readerStage);
+	    }
+	    current.endRecord = endRecord;
+	    long start = System.nanoTime();
+	    chunks.put(current);
+	    readerStage.waitNanos += System.nanoTime() - start;
+	    current = null;
+	}
+    }
+
+    /**
+     * Puts the binary keys of the encoder into batches
+     */
+    private class BatchWriter implements LongConsumer {
+	private int output; // index of the length
+	private Batch current;
+
+	/**
+	 * Constructor of the BatchWriter
+	 * 
+	 * @param output is the index of the length of the keys
+	 */
+	private BatchWriter(int output) {
+	    this.output = output;
+	}
+
+	@Override
+	public void accept(long binaryKey) {
+	    current.keys[current.size++] = binaryKey;
+	    if (current.size == BATCH_SIZE) {
+		try {
+		    send();
+		    current = take(freeBatches, encoderStage);
+		} catch (InterruptedException e) {
+		    throw new IllegalStateException("Pipeline stopped", e);
+		}
+	    }
+	}
+
+	/**
+	 * Sends the current batch to the writer
+	 * 
+	 * @throws InterruptedException if the thread is interrupted
+	 */
+	private void send() throws InterruptedException {
+	    current.output = output;
+	    long start = System.nanoTime();
+	    batches.put(current);
+	    encoderStage.waitNanos += System.nanoTime() - start;
+	}
+    }
+
+    /**
+     * Chunk is a block of bases of one sequence
+     */
+    private static class Chunk {
+	private byte[] bases = new byte[CHUNK_SIZE];
+	private int length;
+	private boolean endRecord; // the sequence ends after these bases
+	private boolean last; // no chunk follows
+    }
+
+    /**
+     * Batch is a block of binary keys
+     */
+    private static class Batch {
+	private long[] keys = new long[BATCH_SIZE];
+	private int size;
+	private int output; // index of the length of the keys
+	private boolean last; // no batch follows
+    }
+
+    /**
+     * Stage holds the statistics of one stage
+     */
+    private static class Stage {
+	private String name;
+	private long units; // bytes, bases or keys handled
+	private long busyNanos;
+	private long waitNanos; // time blocked on a queue
+	private long samples;
+	private long queueTotal; // sum of the sampled queue sizes
+	private int queueCapacity;
+
+	/**
+	 * Constructor of the Stage
+	 * 
+	 * @param name is the name of the stage
+	 */
+	private Stage(String name) {
+	    this.name = name;
+	}
+
+	/**
+	 * Samples the size of the input queue of the stage
+	 * 
+	 * @param queueSize     is the number of items in the queue
+	 * @param queueCapacity is the number of items the queue can hold
+	 */
+	private void sample(int queueSize, int queueCapacity) {
+	    samples++;
+	    queueTotal += queueSize;
+	    this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * Returns the statistics of the stage
+	 * 
+	 * @param unit is the name of the units handled by the stage
+	 * @return the statistics as a line of text
+	 */
+	private String toString(String unit) {
+	    String line = String.format("%s: %d %s, busy %.3f s (%.1f M%s/s), waiting %.3f s", name, units, unit,
+		    busyNanos / 1e9, busyNanos == 0 ? 0 : units * 1e3 / busyNanos, unit, waitNanos / 1e9);
+	    if (samples > 0) {
+		double average = (double) queueTotal / samples;
+		line += String.format(", input queue %.1f of %d items on average (%.0f%% full)", average, queueCapacity,
+			100 * average / queueCapacity);
+	    }
+	    return line + ".";
+	}
+    }
+}
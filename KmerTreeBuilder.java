@@ -0,0 +1,204 @@
+import java.io.IOException;
+import java.util.function.LongConsumer;
+
+/**
+ * KmerTreeBuilder builds the BTree file of one sequence length. The DNA
+ * sequences are either inserted in a BTree one by one (through a KmerMemtable if
+ * one is asked for), or counted by a KmerCounter and bulk loaded at the end.
+ * 
+ * The builder only gives a sink for the binary keys; the GeneBank file is parsed
+ * by the caller, so one parse can feed the builders of several lengths.
+ * 
+ * A length above 31 has 128-bit keys, which are only inserted: its BTree is
+ * created with 128-bit keys and its sink is a WideKeyConsumer.
+ * 
+ * @author Sajia Zafreen
+ */
+public class KmerTreeBuilder {
+    private String fileName; // the BTree file
+    private int length;
+    private int degree;
+    private boolean canonical;
+
+    // insert
+    private BTree bTree;
+    private KmerMemtable table;
+
+    // bulk load
+    private KmerCounter counter;
+    private double fillFactor;
+    private String storage;
+
+    private LongConsumer sink;
+    private WideKeyConsumer wideSink;
+
+    /**
+     * Constructor of the KmerTreeBuilder
+     * 
+     * @param geneBankFile is the GeneBank file, the BTree file is named after it
+     * @param length       is the length of the DNA sequence
+     * @param degree       is the degree of the BTree, 0 for the optimal degree
+     */
+    public KmerTreeBuilder(String geneBankFile, int length, int degree) {
+	this.fileName = geneBankFile + ".btree.data." + length + "." + degree;
+	this.length = length;
+	this.degree = degree;
+    }
+
+    /**
+     * Constructor of the KmerTreeBuilder, in canonical mode or not
+     * 
+     * @param geneBankFile is the GeneBank file, the BTree file is named after it
+     * @param length       is the length of the DNA sequence
+     * @param degree       is the degree of the BTree, 0 for the optimal degree
+     * @param canonical    is true if the keys are canonical DNA sequences, which
+     *                     is recorded in the BTree file
+     */
+    public KmerTreeBuilder(String geneBankFile, int length, int degree, boolean canonical) {
+	this(geneBankFile, length, degree);
+	this.canonical = canonical;
+    }
+
+    /**
+     * Inserts the DNA sequences in a BTree one by one. If cache is mentioned a cache
+     * is implemented.
+     * 
+     * @param cacheSize   is the size of the cache
+     * @param cachePolicy is the eviction policy of the cache
+     * @param memtable    is the number of keys counted in memory before they are
+     *                    inserted, 0 for no memtable
+     * @param storage     is the storage backend of the BTree file
+     * @throws IOException if the BTree file cannot be created
+     */
+    public void insert(int cacheSize, String cachePolicy, int memtable, String storage) throws IOException {
+	boolean wideKeys = length > BinaryFormat.MAX_LONG_LENGTH;
+	bTree = new BTree(degree, BTreeStorage.open(fileName, true, storage), cacheSize, cachePolicy, wideKeys);
+	bTree.setCanonical(canonical);
+	if (degree >= 2) {
+	    System.err.println("A BTree of degree " + degree + " is created for length " + length + ".");
+	} else if (degree == 0) {
+	    System.err.println("A BTree of optimal degree is created for length " + length + ".");
+	}
+
+	if (cacheSize > 0) {
+	    System.err.println("A BTree " + bTree.getBTreeCache().getPolicy().getName() + " Cache of size " + cacheSize
+		    + " is implemented.");
+	}
+	if (wideKeys) {
+	    BTree wideTree = bTree;
+	    wideSink = (highKey, binaryKey) -> wideTree.bTree_insert(highKey, binaryKey, 1);
+	} else if (memtable > 0) {
+	    table = new KmerMemtable(memtable, bTree);
+	    sink = table;
+	} else {
+	    sink = bTree::bTree_insert;
+	}
+    }
+
+    /**
+     * Counts the DNA sequences first, then a packed BTree is bulk loaded in one
+     * sequential pass with the nodes filled to the fill factor.
+     * 
+     * @param counter    counts the DNA sequences
+     * @param fillFactor is the fraction of each node filled with keys
+     */
+    public void count(KmerCounter counter, double fillFactor) {
+	count(counter, fillFactor, BTreeStorage.DEFAULT_STORAGE);
+    }
+
+    /**
+     * Counts the DNA sequences first, then a packed BTree is bulk loaded through
+     * the storage backend
+     * 
+     * @param counter    counts the DNA sequences
+     * @param fillFactor is the fraction of each node filled with keys
+     * @param storage    is the storage backend of the BTree file
+     */
+    public void count(KmerCounter counter, double fillFactor, String storage) {
+	this.counter = counter;
+	this.fillFactor = fillFactor;
+	this.storage = storage;
+	sink = counter;
+    }
+
+    /**
+     * Returns the sink of the binary keys
+     * 
+     * @return the sink
+     */
+    public LongConsumer getSink() {
+	return sink;
+    }
+
+    /**
+     * Returns the sink of the 128-bit keys, of a length above 31
+     * 
+     * @return the sink, null for a length up to 31
+     */
+    public WideKeyConsumer getWideSink() {
+	return wideSink;
+    }
+
+    /**
+     * Returns the length of the DNA sequence
+     * 
+     * @return the length of the DNA sequence
+     */
+    public int getLength() {
+	return length;
+    }
+
+    /**
+     * Returns true if the keys are canonical DNA sequences
+     * 
+     * @return true for canonical keys
+     */
+    public boolean isCanonical() {
+	return canonical;
+    }
+
+    /**
+     * Writes the rest of the BTree once all the keys went to the sink, and prints
+     * the statistics of the build
+     * 
+     * @throws IOException if the BTree file cannot be written
+     */
+    public void finish() throws IOException {
+	if (bTree != null) {
+	    if (table != null) {
+		table.flush();
+	    }
+	    // ** Writing Tree meta-data at last***//
+	    bTree.write_Tree_MetaData();
+	    System.err.println("BTree insert is finished for length " + length + ".");
+	    if (table != null) {
+		System.err.println(table.getStatistics());
+	    }
+	    printCacheStatistics(bTree);
+	} else {
+	    BTreeBulkLoader loader = new BTreeBulkLoader(fileName, degree, fillFactor, storage);
+	    loader.setCanonical(canonical);
+	    loader.load(counter.sortedCounts());
+	    if (counter instanceof ExternalKmerCounter) {
+		System.err.println(((ExternalKmerCounter) counter).getStatistics());
+	    }
+	    System.err.println("A packed BTree of degree " + loader.getDegree() + " is bulk loaded for length " + length
+		    + ": " + loader.getNumNodes() + " nodes in " + loader.getNumLevels() + " levels, fill factor "
+		    + fillFactor + ".");
+	}
+    }
+
+    /**
+     * Prints the hits and misses of the BTree cache, if a cache is implemented, and
+     * the node reads and writes of the BTree file on the standard error stream.
+     * 
+     * @param bTree is the BTree
+     */
+    static void printCacheStatistics(BTree bTree) {
+	if (bTree.getBTreeCache() != null) {
+	    System.err.println(bTree.getBTreeCache().getStatistics());
+	}
+	System.err.println("BTree file: " + bTree.getDiskReads() + " node reads, " + bTree.getDiskWrites()
+		+ " node writes.");
+    }
+}
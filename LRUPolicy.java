@@ -0,0 +1,38 @@
+/**
+ * LRUPolicy evicts the least recently used node of the Cache.
+ * 
+ * @author Sajia Zafreen
+ */
+public class LRUPolicy implements EvictionPolicy {
+    private CacheList recency = new CacheList(); // most recently used first
+
+    @Override
+    public void hit(CacheEntry entry) {
+	recency.moveToFront(entry);
+    }
+
+    @Override
+    public void add(CacheEntry entry) {
+	recency.linkFirst(entry);
+    }
+
+    @Override
+    public CacheEntry evict(int location) {
+	return recency.removeLast();
+    }
+
+    @Override
+    public void remove(CacheEntry entry) {
+	recency.unlink(entry);
+    }
+
+    @Override
+    public void clear() {
+	recency.clear();
+    }
+
+    @Override
+    public String getName() {
+	return "LRU";
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * LocationTable is a hash table of CacheEntries keyed by their int location in
+ * the BTree file. The buckets are chained through the entries themselves, so no
+ * key is boxed and the table allocates nothing on put beyond the entry the
+ * caller gives it.
+ * 
+ * @author Sajia Zafreen
+ */
+public class LocationTable {
+    private CacheEntry[] table; // hash buckets
+    private int hashShift;
+    private int size;
+
+    /**
+     * Constructor of the LocationTable
+     * 
+     * @param capacity is the expected maximum number of entries
+     */
+    public LocationTable(int capacity) {
+	int buckets = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) * 2; // at most half full
+	this.table = new CacheEntry[buckets];
+	this.hashShift = 32 - Integer.numberOfTrailingZeros(buckets);
+    }
+
+    /**
+     * Returns the bucket of a location
+     * 
+     * @param location is the location of the node in the file
+     * @return the index of the bucket
+     */
+    private int bucket(int location) {
+	return (location * 0x9E3779B9) >>> hashShift;
+    }
+
+    /**
+     * Returns the entry of the location
+     * 
+     * @param location is the location of the node in the file
+     * @return the entry, or null if there is no entry for the location
+     */
+    public CacheEntry get(int location) {
+	CacheEntry entry = table[bucket(location)];
+	while (entry != null && entry.getLocation() != location) {
+	    entry = entry.hashNext;
+	}
+	return entry;
+    }
+
+    /**
+     * Adds an entry. There must not be an entry for the same location already.
+     * 
+     * @param entry is the entry to be added
+     */
+    public void put(CacheEntry entry) {
+	int index = bucket(entry.getLocation());
+	entry.hashNext = table[index];
+	table[index] = entry;
+	size++;
+    }
+
+    /**
+     * Removes an entry of the table
+     * 
+     * @param entry is the entry to be removed
+     */
+    public void remove(CacheEntry entry) {
+	int index = bucket(entry.getLocation());
+	if (table[index] == entry) {
+	    table[index] = entry.hashNext;
+	} else {
+	    CacheEntry before = table[index];
+	    while (before.hashNext != entry) {
+		before = before.hashNext;
+	    }
+	    before.hashNext = entry.hashNext;
+	}
+	entry.hashNext = null;
+	size--;
+    }
+
+    /**
+     * Returns the entry of the bucket at the index, the other entries of the
+     * bucket follow through hashNext.
+     * 
+     * @param index is the index of the bucket
+     * @return the first entry of the bucket
+     */
+    public CacheEntry getBucket(int index) {
+	return table[index];
+    }
+
+    /**
+     * Returns the number of buckets
+     * 
+     * @return the number of buckets
+     */
+    public int numBuckets() {
+	return table.length;
+    }
+
+    /**
+     * Removes all the entries
+     */
+    public void clear() {
+	for (int i = 0; i < table.length; i++) {
+	    table[i] = null;
+	}
+	size = 0;
+    }
+
+    /**
+     * Returns the number of entries
+     * 
+     * @return the number of entries
+     */
+    public int size() {
+	return size;
+    }
+}
@@ -0,0 +1,300 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * MappedBTree searches a BTree file mapped read only in memory. The nodes are
+ * never copied into TreeNodes: a NodeView reads the keys, frequencies and child
+ * pointers of a node in place, at their offsets in the mapped file, so a query
+ * whose nodes are in the page cache costs only the descent. The mapping is
+ * shared through the page cache with any other process searching the same file.
+ * 
+ * A MappedBTree can be searched by many threads at once, each with its own
+ * NodeView.
+ * 
+ * The key width is read from the meta_data: a key of a BTree of 128-bit keys is
+ * laid out as its high key, its binary key, frequency and key condition.
+ * 
+ * @author Sajia Zafreen
+ */
+public class MappedBTree {
+    // offsets in a node, see NodeCodec
+    private static final int LEAF_OFFSET = 0;
+    private static final int NUM_KEYS_OFFSET = 1;
+    private static final int KEYS_OFFSET = 9;
+
+    private MappedByteBuffer map;
+    private int degree;
+    private int rootLocation;
+    private int numNodes;
+    private int flags; // meta_data flags
+    private boolean wideKeys;
+    private int keyLength; // key, frequency and key condition
+    private int binaryKeyOffset; // in a key, after the high key of a 128-bit key
+    private int frequencyOffset; // in a key
+
+    /**
+     * Constructor of the MappedBTree
+     * 
+     * @param fileName is the BTree file
+     * @throws IOException if the file cannot be mapped
+     */
+    public MappedBTree(String fileName) throws IOException {
+	try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+	    // the mapping stays valid once the channel is closed
+	    map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+	}
+	rootLocation = map.getInt(0);
+	numNodes = map.getInt(4);
+	degree = map.getInt(8) & BTree.DEGREE_MASK;
+	flags = map.getInt(8) & ~BTree.DEGREE_MASK;
+	wideKeys = (flags & BTree.WIDE_KEYS_FLAG) != 0;
+	binaryKeyOffset = wideKeys ? 8 : 0;
+	frequencyOffset = binaryKeyOffset + 8;
+	keyLength = frequencyOffset + 8;
+    }
+
+    /**
+     * Returns the frequency of a key. A NodeView is created for the search; a
+     * caller searching many keys can pass its own.
+     * 
+     * @param binaryKey is the binary key of the DNA sequence
+     * @return the frequency, 0 if the key is not in the BTree
+     */
+    public int search(long binaryKey) {
+	return search(binaryKey, new NodeView());
+    }
+
+    /**
+     * Returns the frequency of a key, as a 128-bit key with a high key of 0,
+     * descending the BTree with the view
+     * 
+     * @param binaryKey is the binary key of the DNA sequence
+     * @param view      is a view of this BTree, moved along the descent
+     * @return the frequency, 0 if the key is not in the BTree
+     */
+    public int search(long binaryKey, NodeView view) {
+	return search(0, binaryKey, view);
+    }
+
+    /**
+     * Returns the frequency of a 128-bit key, descending the BTree with the view
+     * 
+     * @param highKey   is the high key of the DNA sequence, 0 if the keys are not
+     *                  128-bit
+     * @param binaryKey is the binary key of the DNA sequence
+     * @param view      is a view of this BTree, moved along the descent
+     * @return the frequency, 0 if the key is not in the BTree
+     */
+    public int search(long highKey, long binaryKey, NodeView view) {
+	view.moveTo(rootLocation);
+	while (true) {
+	    int index = view.findKey(highKey, binaryKey);
+	    if (index >= 0) {
+		return view.getFrequency(index);
+	    } else if (view.isLeaf()) {
+		return 0;
+	    }
+	    view.moveTo(view.getChildPointer(-(index + 1)));
+	}
+    }
+
+    /**
+     * Returns a new view of this BTree at the root node
+     * 
+     * @return the view
+     */
+    public NodeView newView() {
+	NodeView view = new NodeView();
+	view.moveTo(rootLocation);
+	return view;
+    }
+
+    /**
+     * Returns the degree of the BTree
+     * 
+     * @return the degree
+     */
+    public int getDegree() {
+	return degree;
+    }
+
+    /**
+     * Returns true if the keys of the BTree are canonical DNA sequences
+     * 
+     * @return true for canonical keys
+     */
+    public boolean isCanonical() {
+	return (flags & BTree.CANONICAL_FLAG) != 0;
+    }
+
+    /**
+     * Returns true if the keys of the BTree are 128-bit
+     * 
+     * @return true for 128-bit keys
+     */
+    public boolean isWideKeys() {
+	return wideKeys;
+    }
+
+    /**
+     * Returns the number of nodes of the BTree
+     * 
+     * @return the number of nodes
+     */
+    public int getNumNodes() {
+	return numNodes;
+    }
+
+    /**
+     * Returns the number of bytes mapped
+     * 
+     * @return the length of the BTree file
+     */
+    public long getMappedLength() {
+	return map.capacity();
+    }
+
+    /**
+     * NodeView is a flyweight over one node of the mapped file. Moving it to
+     * another node only changes its location; nothing is read until a key,
+     * frequency or pointer is asked for.
+     */
+    public class NodeView {
+	private int location;
+	private int numKeys;
+
+	/**
+	 * Moves the view to the node at the location
+	 * 
+	 * @param location is the location of the node
+	 */
+	public void moveTo(int location) {
+	    this.location = location;
+	    this.numKeys = map.getInt(location + NUM_KEYS_OFFSET);
+	}
+
+	/**
+	 * Returns the location of the node
+	 * 
+	 * @return the location
+	 */
+	public int getLocation() {
+	    return location;
+	}
+
+	/**
+	 * Returns true if the node is a leaf
+	 * 
+	 * @return true for a leaf
+	 */
+	public boolean isLeaf() {
+	    return map.get(location + LEAF_OFFSET) != 0;
+	}
+
+	/**
+	 * Returns the number of keys of the node
+	 * 
+	 * @return the number of keys
+	 */
+	public int getNumKeys() {
+	    return numKeys;
+	}
+
+	/**
+	 * Returns the key at the index
+	 * 
+	 * @param index is the index of the key in the node
+	 * @return the binary key
+	 */
+	public long getKey(int index) {
+	    return map.getLong(location + KEYS_OFFSET + index * keyLength + binaryKeyOffset);
+	}
+
+	/**
+	 * Returns the high key at the index
+	 * 
+	 * @param index is the index of the key in the node
+	 * @return the high key, 0 if the keys are not 128-bit
+	 */
+	public long getHighKey(int index) {
+	    return wideKeys ? map.getLong(location + KEYS_OFFSET + index * keyLength) : 0;
+	}
+
+	/**
+	 * Returns the frequency of the key at the index
+	 * 
+	 * @param index is the index of the key in the node
+	 * @return the frequency
+	 */
+	public int getFrequency(int index) {
+	    return map.getInt(location + KEYS_OFFSET + index * keyLength + frequencyOffset);
+	}
+
+	/**
+	 * Returns the child pointer at the index. The child pointers follow the keys
+	 * in use.
+	 * 
+	 * @param index is the index of the child, from 0 to the number of keys
+	 * @return the location of the child
+	 */
+	public int getChildPointer(int index) {
+	    return map.getInt(location + KEYS_OFFSET + numKeys * keyLength + index * 4);
+	}
+
+	/**
+	 * Binary search of a key among the keys of the node, as TreeNode.findKey
+	 * 
+	 * @param key is the binary key to find
+	 * @return the index of the key if it is in the node, otherwise (-(insertion
+	 *         point) - 1)
+	 */
+	public int findKey(long key) {
+	    int low = 0;
+	    int high = numKeys - 1;
+	    while (low <= high) {
+		int middle = (low + high) >>> 1;
+		long middleKey = getKey(middle);
+		if (middleKey < key) {
+		    low = middle + 1;
+		} else if (middleKey > key) {
+		    high = middle - 1;
+		} else {
+		    return middle;
+		}
+	    }
+	    return -(low + 1);
+	}
+
+	/**
+	 * Binary search of a 128-bit key among the keys of the node, as
+	 * TreeNode.findKey
+	 * 
+	 * @param highKey is the high key to find, 0 if the keys are not 128-bit
+	 * @param key     is the binary key to find
+	 * @return the index of the key if it is in the node, otherwise (-(insertion
+	 *         point) - 1)
+	 */
+	public int findKey(long highKey, long key) {
+	    if (!wideKeys) {
+		return findKey(key);
+	    }
+	    int low = 0;
+	    int high = numKeys - 1;
+	    while (low <= high) {
+		int middle = (low + high) >>> 1;
+		int compare = BinaryFormat.compareKeys(getHighKey(middle), getKey(middle), highKey, key);
+		if (compare < 0) {
+		    low = middle + 1;
+		} else if (compare > 0) {
+		    high = middle - 1;
+		} else {
+		    return middle;
+		}
+	    }
+	    return -(low + 1);
+	}
+    }
+}
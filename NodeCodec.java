@@ -0,0 +1,181 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * NodeCodec encodes a TreeNode as it is laid out in the BTree file and decodes
+ * it back. A codec owns one node buffer, so writing or reading a node through
+ * it allocates nothing, and each node is moved with exactly one write or read
+ * of the BTreeStorage. A codec is not shared between threads.
+ * 
+ * The layout of a node is: leaf byte, number of keys, location, then key,
+ * frequency and key condition of each key, the child pointers, the parent
+ * pointer, and zero padding up to the node length. A 128-bit key is laid out
+ * as its high key followed by its binary key, so the keys of such a node take
+ * 24 bytes each instead of 16.
+ * 
+ * @author Sajia Zafreen
+ */
+public class NodeCodec {
+    private int degree;
+    private boolean wideKeys;
+    private int nodeLength;
+    private ByteBuffer buffer;
+
+    /**
+     * Constructor of the NodeCodec
+     * 
+     * @param degree is the degree of the BTree
+     */
+    public NodeCodec(int degree) {
+	this(degree, false);
+    }
+
+    /**
+     * Constructor of the NodeCodec for 64-bit or 128-bit keys
+     * 
+     * @param degree   is the degree of the BTree
+     * @param wideKeys is true for 128-bit keys
+     */
+    public NodeCodec(int degree, boolean wideKeys) {
+	this.degree = degree;
+	this.wideKeys = wideKeys;
+	this.nodeLength = BTree.nodeLength(degree, wideKeys);
+	this.buffer = ByteBuffer.allocateDirect(nodeLength);
+    }
+
+    /**
+     * Puts the treeNode in the buffer as it is laid out in the file. Exactly
+     * nodeLength bytes are put, the unused key and child slots are zero.
+     * 
+     * @param treeNode   is the treeNode to be encoded
+     * @param buffer     is the buffer, positioned where the node starts
+     * @param nodeLength is the length of a node of the BTree
+     */
+    static void encode(TreeNode treeNode, ByteBuffer buffer, int nodeLength) {
+	int end = buffer.position() + nodeLength;
+	int numKeys = treeNode.getCurrentNumKeys();
+	boolean wide = treeNode.isWideKeys();
+
+	// node meta data
+	buffer.put((byte) (treeNode.getLeaf() ? 1 : 0));
+	buffer.putInt(numKeys);
+	buffer.putInt(treeNode.getLocation());
+
+	for (int i = 0; i < numKeys; i++) {
+	    if (wide) {
+		buffer.putLong(treeNode.getTreeHighKey(i));
+	    }
+	    buffer.putLong(treeNode.getTreeKey(i));
+	    buffer.putInt(treeNode.getTreefrequency(i));
+	    buffer.putInt(treeNode.getNodeKeyCondition(i));
+	}
+	for (int i = 0; i < numKeys + 1; i++) {
+	    buffer.putInt(treeNode.getChildPointer(i));
+	}
+	buffer.putInt(treeNode.getParentPointer());
+
+	while (end - buffer.position() >= 8) {
+	    buffer.putLong(0L);
+	}
+	while (buffer.position() < end) {
+	    buffer.put((byte) 0);
+	}
+    }
+
+    /**
+     * Returns the offset of the parent pointer in a node laid out by encode, after
+     * the keys and the child pointers in use
+     * 
+     * @param numKeys  is the number of keys of the node
+     * @param wideKeys is true for 128-bit keys
+     * @return the offset from the start of the node
+     */
+    static int parentPointerOffset(int numKeys, boolean wideKeys) {
+	int metaData = 9; // leaf byte, number of keys, location
+	int treeObject = wideKeys ? 24 : 16;
+	return metaData + numKeys * treeObject + (numKeys + 1) * 4;
+    }
+
+    /**
+     * Decodes a node put by encode into the treeNode. The buffer position is moved
+     * past the node data, without the padding.
+     * 
+     * @param buffer   is the buffer positioned at the start of the node
+     * @param treeNode is the node to decode into, of the degree and key width of
+     *                 the BTree
+     * @return the treeNode
+     */
+    static TreeNode decode(ByteBuffer buffer, TreeNode treeNode) {
+	boolean wide = treeNode.isWideKeys();
+	treeNode.setLeaf(buffer.get() != 0);
+	int numKeys = buffer.getInt();
+	treeNode.setCurrentNumKeys(numKeys);
+	treeNode.setLocation(buffer.getInt());
+	for (int i = 0; i < numKeys; i++) {
+	    if (wide) {
+		treeNode.setTreeHighKey(i, buffer.getLong());
+	    }
+	    treeNode.setTreeKey(i, buffer.getLong());
+	    treeNode.setTreefrequency(i, buffer.getInt());
+	    treeNode.setNodeKeyCondition(i, buffer.getInt());
+	}
+	for (int i = 0; i < numKeys + 1; i++) {
+	    treeNode.setChildPointer(i, buffer.getInt());
+	}
+	treeNode.setParentPointer(buffer.getInt());
+	treeNode.setDirty(false);
+	return treeNode;
+    }
+
+    /**
+     * Writes the treeNode at its location with one write
+     * 
+     * @param storage  is the BTree file
+     * @param treeNode is the treeNode to be written
+     * @throws IOException if the file cannot be written
+     */
+    public void write(BTreeStorage storage, TreeNode treeNode) throws IOException {
+	buffer.clear();
+	encode(treeNode, buffer, nodeLength);
+	buffer.flip();
+	storage.write(buffer, treeNode.getLocation());
+    }
+
+    /**
+     * Reads the node at the location with one read and decodes it into the
+     * treeNode. The last node of the file may be shorter than the node length.
+     * 
+     * @param storage  is the BTree file
+     * @param location is the location of the node
+     * @param treeNode is the node to decode into, of the degree of the BTree
+     * @return the treeNode
+     * @throws IOException if the file cannot be read
+     */
+    public TreeNode read(BTreeStorage storage, int location, TreeNode treeNode) throws IOException {
+	buffer.clear();
+	storage.read(buffer, location);
+	buffer.flip();
+	return decode(buffer, treeNode);
+    }
+
+    /**
+     * Reads the node at the location into a new TreeNode
+     * 
+     * @param storage  is the BTree file
+     * @param location is the location of the node
+     * @return the node
+     * @throws IOException if the file cannot be read
+     */
+    public TreeNode read(BTreeStorage storage, int location) throws IOException {
+	return read(storage, location, new TreeNode(degree, wideKeys));
+    }
+
+    /**
+     * Returns the length of a node in the file
+     * 
+     * @return the node length
+     */
+    public int getNodeLength() {
+	return nodeLength;
+    }
+}
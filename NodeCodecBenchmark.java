@@ -0,0 +1,137 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+/**
+ * NodeCodecBenchmark measures the time and the heap allocation of the node I/O
+ * of the NodeCodec: writing a full node, reading a node into a reused
+ * TreeNode, and reading a node into a new TreeNode as the BTree does. The bytes
+ * allocated per node are taken from the allocation counter of the thread, so
+ * the first two should report 0 bytes and the third the size of one TreeNode.
+ * The benchmark runs on the BTreeStorage backend given, so the backends can be
+ * compared on the same node I/O.
+ * 
+ * @author Sajia Zafreen
+ */
+public class NodeCodecBenchmark {
+    private static final int NUM_NODES = 1024; // nodes in the benchmark file
+
+    /**
+     * Main method
+     * 
+     * @param args are the degree, the number of node operations per round and the
+     *             storage backend
+     * @throws IOException if the benchmark file cannot be written or read
+     */
+    public static void main(String[] args) throws IOException {
+	int degree = BTree.optimalDegree(0);
+	int operations = 200000;
+	String backend = args.length > 2 ? args[2] : BTreeStorage.DEFAULT_STORAGE;
+	try {
+	    if (args.length > 0) {
+		degree = BTree.optimalDegree(Integer.parseInt(args[0]));
+	    }
+	    if (args.length > 1) {
+		operations = Integer.parseInt(args[1]);
+	    }
+	} catch (NumberFormatException e) {
+	    System.err.println("Usage: java NodeCodecBenchmark [<degree>] [<operations>] [<raf/channel>]");
+	    System.exit(1);
+	}
+	if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+	    System.err.println("The allocation counter of the thread is not supported by this JVM");
+	    System.exit(1);
+	}
+	com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+		.getThreadMXBean();
+	threads.setThreadAllocatedMemoryEnabled(true);
+
+	File file = File.createTempFile("nodecodec", ".bTree");
+	file.deleteOnExit();
+	NodeCodec codec = new NodeCodec(degree);
+	TreeNode node = fullNode(degree);
+	try (BTreeStorage storage = BTreeStorage.open(file.getPath(), true, backend)) {
+	    System.out.println("Degree " + degree + ", node length " + codec.getNodeLength() + " bytes, " + operations
+		    + " operations per round on " + storage.getName() + " storage.");
+	    for (int round = 0; round < 3; round++) { // the first rounds warm up the JIT
+		System.out.println("Round " + (round + 1) + ":");
+		long bytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+		long start = System.nanoTime();
+		for (int i = 0; i < operations; i++) {
+		    node.setLocation(location(i, codec));
+		    codec.write(storage, node);
+		}
+		report("write", operations, start, bytes, threads);
+
+		TreeNode readNode = new TreeNode(degree);
+		bytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+		start = System.nanoTime();
+		long checksum = 0;
+		for (int i = 0; i < operations; i++) {
+		    checksum += codec.read(storage, location(i, codec), readNode).getTreefrequency(0);
+		}
+		report("read into a reused node", operations, start, bytes, threads);
+
+		bytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+		start = System.nanoTime();
+		for (int i = 0; i < operations; i++) {
+		    checksum += codec.read(storage, location(i, codec)).getTreefrequency(0);
+		}
+		report("read into a new node", operations, start, bytes, threads);
+		if (checksum != 2L * operations * node.getTreefrequency(0)) {
+		    System.err.println("The nodes read back differ from the nodes written");
+		    System.exit(1);
+		}
+	    }
+	} catch (IllegalArgumentException e) {
+	    System.err.println("Storage should be raf or channel");
+	    System.exit(1);
+	}
+    }
+
+    /**
+     * Returns a full leaf node of the degree
+     * 
+     * @param degree is the degree of the BTree
+     * @return the node
+     */
+    private static TreeNode fullNode(int degree) {
+	TreeNode node = new TreeNode(degree);
+	node.setCurrentNumKeys(2 * degree - 1);
+	for (int i = 0; i < 2 * degree - 1; i++) {
+	    node.setTreeKey(i, 3L * i);
+	    node.setTreefrequency(i, i + 1);
+	    node.setNodeKeyCondition(i, 1);
+	}
+	return node;
+    }
+
+    /**
+     * Returns the location of the ith node operation, cycling over the nodes of
+     * the benchmark file
+     * 
+     * @param i     is the number of the operation
+     * @param codec is the codec
+     * @return the location
+     */
+    private static int location(int i, NodeCodec codec) {
+	return BTree.METADATA_Offset + (i % NUM_NODES) * codec.getNodeLength();
+    }
+
+    /**
+     * Prints the time and the bytes allocated per node operation of a benchmark
+     * 
+     * @param name       is the name of the benchmark
+     * @param operations is the number of node operations
+     * @param start      is the start time in nanoseconds
+     * @param bytes      is the allocation counter of the thread at the start
+     * @param threads    gives the allocation counter of the thread
+     */
+    private static void report(String name, int operations, long start, long bytes,
+	    com.sun.management.ThreadMXBean threads) {
+	long time = System.nanoTime() - start;
+	long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytes;
+	System.out.println(String.format("  %-24s %8.1f ns/node %10.1f bytes/node", name, (double) time / operations,
+		(double) allocated / operations));
+    }
+}
@@ -0,0 +1,128 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/**
+ * RandomAccessFileStorage is the BTreeStorage on a RandomAccessFile. Every read
+ * or write seeks the file pointer first, so it cannot be shared by threads. A
+ * buffer without a backing array is copied through a scratch array.
+ * 
+ * @author Sajia Zafreen
+ */
+public class RandomAccessFileStorage implements BTreeStorage {
+    private RandomAccessFile randomFile;
+    private byte[] scratch = new byte[0];
+
+    /**
+     * Constructor of the RandomAccessFileStorage
+     * 
+     * @param fileName is the BTree file
+     * @param write    is true to create or update the file, false to read it only
+     * @throws IOException if the file cannot be opened
+     */
+    public RandomAccessFileStorage(String fileName, boolean write) throws IOException {
+	this(new RandomAccessFile(fileName, write ? "rw" : "r"));
+    }
+
+    /**
+     * Constructor of the RandomAccessFileStorage on an open file
+     * 
+     * @param randomFile is the BTree file
+     */
+    public RandomAccessFileStorage(RandomAccessFile randomFile) {
+	this.randomFile = randomFile;
+    }
+
+    @Override
+    public int read(ByteBuffer buffer, long position) throws IOException {
+	randomFile.seek(position);
+	int total = 0;
+	while (buffer.hasRemaining()) {
+	    int read;
+	    if (buffer.hasArray()) {
+		read = randomFile.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+		if (read > 0) {
+		    buffer.position(buffer.position() + read);
+		}
+	    } else {
+		byte[] bytes = scratch(buffer.remaining());
+		read = randomFile.read(bytes, 0, buffer.remaining());
+		if (read > 0) {
+		    buffer.put(bytes, 0, read);
+		}
+	    }
+	    if (read < 0) {
+		break;
+	    }
+	    total += read;
+	}
+	return total;
+    }
+
+    @Override
+    public void write(ByteBuffer buffer, long position) throws IOException {
+	randomFile.seek(position);
+	writeAtPointer(buffer);
+    }
+
+    @Override
+    public void write(ByteBuffer[] buffers, int offset, int length, long position) throws IOException {
+	randomFile.seek(position);
+	for (int i = offset; i < offset + length; i++) {
+	    writeAtPointer(buffers[i]);
+	}
+    }
+
+    /**
+     * Writes the remaining bytes of the buffer at the file pointer
+     * 
+     * @param buffer is the buffer to write from its position
+     * @throws IOException if the file cannot be written
+     */
+    private void writeAtPointer(ByteBuffer buffer) throws IOException {
+	int remaining = buffer.remaining();
+	if (buffer.hasArray()) {
+	    randomFile.write(buffer.array(), buffer.arrayOffset() + buffer.position(), remaining);
+	} else {
+	    byte[] bytes = scratch(remaining);
+	    buffer.duplicate().get(bytes, 0, remaining);
+	    randomFile.write(bytes, 0, remaining);
+	}
+	buffer.position(buffer.limit());
+    }
+
+    /**
+     * Returns the scratch array, grown to at least the size
+     * 
+     * @param size is the number of bytes needed
+     * @return the scratch array
+     */
+    private byte[] scratch(int size) {
+	if (scratch.length < size) {
+	    scratch = new byte[size];
+	}
+	return scratch;
+    }
+
+    @Override
+    public long length() throws IOException {
+	return randomFile.length();
+    }
+
+    @Override
+    public void extend(long length) throws IOException {
+	if (randomFile.length() < length) {
+	    randomFile.setLength(length);
+	}
+    }
+
+    @Override
+    public String getName() {
+	return "raf";
+    }
+
+    @Override
+    public void close() throws IOException {
+	randomFile.close();
+    }
+}
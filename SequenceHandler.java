@@ -0,0 +1,23 @@
+/**
+ * SequenceHandler receives the DNA bases of the sequences of a GeneBank file,
+ * record by record.
+ * 
+ * @author Sajia Zafreen
+ */
+public interface SequenceHandler {
+
+    /**
+     * Receives the next bases of the current sequence. The array is reused by the
+     * caller after this method returns.
+     * 
+     * @param bases  is the array holding the bases (upper or lower case)
+     * @param offset is the index of the first base in the array
+     * @param length is the number of bases
+     */
+    void bases(byte[] bases, int offset, int length);
+
+    /**
+     * Called at the end ("//") of every sequence.
+     */
+    void endRecord();
+}
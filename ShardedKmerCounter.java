@@ -0,0 +1,210 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.LongConsumer;
+
+/**
+ * ShardedKmerCounter is the KmerCounter shared by several threads. The key space
+ * is cut into shards by the high bits of the binary key, so each shard holds a
+ * range of keys and the shards in order give all the keys in order. Each shard
+ * is a KmerCounter guarded by its own lock: a slice of a DirectKmerCounter when
+ * the counters of all the keys fit in the direct memory, an
+ * ExternalKmerCounter with its share of the memory budget when one is given,
+ * and otherwise a KmerCollector, whose table grows with the distinct keys of
+ * the shard.
+ * 
+ * A thread does not lock a shard for every key: it counts through its own
+ * Batcher, which keeps a small batch of keys per shard and hands a batch over
+ * only when it is full. At the end the shards are sorted in parallel.
+ * 
+ * @author Sajia Zafreen
+ */
+public class ShardedKmerCounter implements KmerCounter {
+    private static final int BATCH_SIZE = 1 << 10;
+
+    private KmerCounter[] shards;
+    private int shardShift; // the shard of a key is key >>> shardShift
+    private ExecutorService executor;
+
+    /**
+     * Constructor of the ShardedKmerCounter
+     * 
+     * @param length         is the length of the DNA sequence
+     * @param numShards      is the number of shards wanted, rounded down to a power
+     *                       of two no larger than the number of possible keys, and
+     *                       than the number of ExternalKmerCounters which fit in
+     *                       the memory budget
+     * @param directMemory   is the memory limit in bytes of a DirectKmerCounter
+     * @param externalMemory is the memory budget in bytes of the
+     *                       ExternalKmerCounters, shared by the shards, at least 4
+     *                       I/O buffers, 0 to count in memory
+     * @param tmpDir         is the directory of the run files, null for the
+     *                       default temporary directory
+     * @param executor       sorts the shards
+     */
+    public ShardedKmerCounter(int length, int numShards, long directMemory, long externalMemory, File tmpDir,
+	    ExecutorService executor) {
+	int shardBits = Math.min(2 * length, 31 - Integer.numberOfLeadingZeros(Math.max(1, numShards)));
+	boolean direct = DirectKmerCounter.fits(length, directMemory);
+	if (!direct && externalMemory > 0) {
+	    // each ExternalKmerCounter needs 4 I/O buffers, so the shards are fewer
+	    // rather than the budget overshot
+	    long maxShards = Math.max(1, externalMemory / (4 * ExternalKmerCounter.IO_BUFFER_SIZE));
+	    shardBits = Math.min(shardBits, 63 - Long.numberOfLeadingZeros(maxShards));
+	}
+	this.shardShift = 2 * length - shardBits;
+	this.shards = new KmerCounter[1 << shardBits];
+	long shardMemory = externalMemory >> shardBits;
+	for (int i = 0; i < shards.length; i++) {
+	    if (direct) {
+		shards[i] = new DirectKmerCounter(shardShift, (long) i << shardShift);
+	    } else if (externalMemory > 0) {
+		shards[i] = new ExternalKmerCounter(shardMemory, tmpDir);
+	    } else {
+		shards[i] = new KmerCollector();
+	    }
+	}
+	this.executor = executor;
+    }
+
+    @Override
+    public void accept(long binaryKey) {
+	KmerCounter shard = shards[(int) (binaryKey >>> shardShift)];
+	synchronized (shard) {
+	    shard.accept(binaryKey);
+	}
+    }
+
+    /**
+     * Returns a new Batcher, the counter of one thread
+     * 
+     * @return the batcher
+     */
+    public Batcher newBatcher() {
+	return new Batcher();
+    }
+
+    /**
+     * Returns the number of shards
+     * 
+     * @return the number of shards
+     */
+    public int getNumShards() {
+	return shards.length;
+    }
+
+    /**
+     * Returns the kind of the shards
+     * 
+     * @return the class name of the shards
+     */
+    public String getShardType() {
+	return shards[0].getClass().getSimpleName();
+    }
+
+    @Override
+    public KmerCountIterator sortedCounts() throws IOException {
+	List<Future<KmerCountIterator>> futures = new ArrayList<Future<KmerCountIterator>>(shards.length);
+	for (KmerCounter shard : shards) {
+	    futures.add(executor.submit(shard::sortedCounts));
+	}
+	final KmerCountIterator[] counts = new KmerCountIterator[shards.length];
+	long size = 0;
+	try {
+	    for (int i = 0; i < counts.length; i++) {
+		counts[i] = futures.get(i).get();
+		// one shard of unknown size makes the whole size unknown
+		size = (size < 0 || counts[i].size() < 0) ? -1 : size + counts[i].size();
+	    }
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new IOException("Interrupted while sorting the shards", e);
+	} catch (ExecutionException e) {
+	    throw new IOException("Cannot sort a shard", e.getCause());
+	}
+	final long totalSize = size;
+	return new KmerCountIterator() {
+	    private int shard = 0;
+
+	    @Override
+	    public boolean next() throws IOException {
+		while (shard < counts.length) {
+		    if (counts[shard].next()) {
+			return true;
+		    }
+		    shard++;
+		}
+		return false;
+	    }
+
+	    @Override
+	    public long getKey() {
+		return counts[shard].getKey();
+	    }
+
+	    @Override
+	    public int getCount() {
+		return counts[shard].getCount();
+	    }
+
+	    @Override
+	    public long size() {
+		return totalSize;
+	    }
+	};
+    }
+
+    /**
+     * Batcher counts the keys of one thread. The keys are handed to the shards
+     * in batches, and flush must be called once the thread is done.
+     */
+    public class Batcher implements LongConsumer {
+	private long[][] batches;
+	private int[] batchSizes;
+
+	/**
+	 * Constructor of the Batcher
+	 */
+	private Batcher() {
+	    batches = new long[shards.length][BATCH_SIZE];
+	    batchSizes = new int[shards.length];
+	}
+
+	@Override
+	public void accept(long binaryKey) {
+	    int shard = (int) (binaryKey >>> shardShift);
+	    batches[shard][batchSizes[shard]++] = binaryKey;
+	    if (batchSizes[shard] == BATCH_SIZE) {
+		flush(shard);
+	    }
+	}
+
+	/**
+	 * Hands the batch of a shard over to the shard
+	 * 
+	 * @param shard is the index of the shard
+	 */
+	private void flush(int shard) {
+	    KmerCounter counter = shards[shard];
+	    synchronized (counter) {
+		for (int i = 0; i < batchSizes[shard]; i++) {
+		    counter.accept(batches[shard][i]);
+		}
+	    }
+	    batchSizes[shard] = 0;
+	}
+
+	/**
+	 * Hands all the batches over to the shards
+	 */
+	public void flush() {
+	    for (int shard = 0; shard < batches.length; shard++) {
+		flush(shard);
+	    }
+	}
+    }
+}
@@ -1,20 +1,29 @@
 /**
  * Creates a TreeNode of BTree with child pointers and parent pointer.
  * 
+ * The keys, frequencies and key conditions are kept in parallel primitive
+ * arrays, so a node is a handful of arrays and not one object per key. A
+ * TreeObject is only created as a copy of a key when one is asked for.
+ * 
+ * A node of a BTree of 128-bit keys (DNA sequences longer than 31) also has an
+ * array of high keys, and its keys are compared as unsigned 128-bit numbers.
+ * The high keys of other nodes are all 0.
+ * 
  * @author Sajia Zafreen
  *
  */
 public class TreeNode {
     private int parentPointer; // parent Location
     private int[] childPointers; // list of child location
-    private TreeNode[] childNodes;
-    private TreeObject[] treeObjects; // list of children
+    private long[] keys; // binary format in long
+    private long[] highKeys; // null unless the keys are 128-bit
+    private int[] frequencies;
+    private byte[] keyConditions; // condition 0= NIL, 1= OCCUPIED, 2= DELETED
     private int currentNumKeys; // number of keys currently stored
     private boolean leaf;
     private int location; // own location in the file
     private int degree;
-    // keys = binary format in long
-    // treeObject = keys+ frequency
+    private boolean dirty; // changed since it was last written to the file
 
     /**
      * Constructor of the TreeNode
@@ -25,34 +34,54 @@ public class TreeNode {
 	this.setDegree(degree);
 	this.parentPointer = 0; // 1 parent pointer
 	this.childPointers = new int[2 * degree];// 2t childPointers for full node
-	this.childNodes = new TreeNode[2 * degree];
-	this.treeObjects = new TreeObject[2 * degree - 1];
-	for (int i = 0; i < treeObjects.length; i++) {
-	    treeObjects[i] = new TreeObject((long) (0));
-	}
+	this.keys = new long[2 * degree - 1];
+	this.frequencies = new int[2 * degree - 1];
+	this.keyConditions = new byte[2 * degree - 1];
 	this.currentNumKeys = 0;
 	this.leaf = true; // when starts it is a leaf node
 	this.location = 0;
     }
 
     /**
-     * Sets the TreeObject
+     * Constructor of the TreeNode with 64-bit or 128-bit keys
+     * 
+     * @param degree   is the degree of the BTree
+     * @param wideKeys is true for 128-bit keys
+     */
+    public TreeNode(int degree, boolean wideKeys) {
+	this(degree);
+	if (wideKeys) {
+	    this.highKeys = new long[2 * degree - 1];
+	}
+    }
+
+    /**
+     * Sets the key, frequency and key condition at the index from the TreeObject
      * 
      * @param index      is the index of the TreeObject
      * @param treeObject is the treeObject to be set
      */
     public void setTreeObject(int index, TreeObject treeObject) {
-	this.treeObjects[index] = treeObject;
+	this.keys[index] = treeObject.getBinaryKey();
+	if (highKeys != null) {
+	    this.highKeys[index] = treeObject.getHighKey();
+	}
+	this.frequencies[index] = treeObject.getFrequency();
+	this.keyConditions[index] = (byte) treeObject.getKeyCondition();
     }
 
     /**
-     * Returns the treeObject
+     * Returns a TreeObject with the key, frequency and key condition at the index.
+     * It is a copy: changing it does not change the node.
      * 
      * @param index is the index in the tree node
      * @return the treeObject
      */
     public TreeObject getTreeObject(int index) {
-	return this.treeObjects[index];
+	TreeObject treeObject = new TreeObject(getTreeHighKey(index), keys[index]);
+	treeObject.setFrequency(frequencies[index]);
+	treeObject.setKeyCondition(keyConditions[index]);
+	return treeObject;
     }
 
     /**
@@ -163,26 +192,6 @@ public class TreeNode {
 	this.location = location;
     }
 
-    /**
-     * Sets the child of the tree node
-     * 
-     * @param index     is the index in the node
-     * @param childNode is the node to be set
-     */
-    public void setChild(int index, TreeNode childNode) {
-	this.childNodes[index] = childNode;
-    }
-
-    /**
-     * Returns the child at the index location of the tree node
-     * 
-     * @param index is the index of the child's position in the tree node
-     * @return the child at the index location of the tree node
-     */
-    public TreeNode getChild(int index) {
-	return this.childNodes[index];
-    }
-
     /**
      * Returns the degree of the tree node
      * 
@@ -208,7 +217,135 @@ public class TreeNode {
      * @param key   is the key to be set
      */
     public void setTreeKey(int index, long key) {
-	this.treeObjects[index].setBinaryKey(key);
+	this.keys[index] = key;
+    }
+
+    /**
+     * Returns the tree node key at the index
+     * 
+     * @param index is the index in the tree node
+     * @return the key at the index
+     */
+    public long getTreeKey(int index) {
+	return this.keys[index];
+    }
+
+    /**
+     * Returns true if the keys of the node are 128-bit
+     * 
+     * @return true for 128-bit keys
+     */
+    public boolean isWideKeys() {
+	return highKeys != null;
+    }
+
+    /**
+     * Sets the high key at the index, only in a node of 128-bit keys
+     * 
+     * @param index   is the index in the tree node
+     * @param highKey is the high key to be set
+     */
+    public void setTreeHighKey(int index, long highKey) {
+	this.highKeys[index] = highKey;
+    }
+
+    /**
+     * Returns the high key at the index
+     * 
+     * @param index is the index in the tree node
+     * @return the high key at the index, 0 if the keys are not 128-bit
+     */
+    public long getTreeHighKey(int index) {
+	return highKeys == null ? 0 : this.highKeys[index];
+    }
+
+    /**
+     * Compares the key at the index with a key, as unsigned 128-bit numbers
+     * 
+     * @param index   is the index in the tree node
+     * @param highKey is the high key of the key, 0 if the keys are not 128-bit
+     * @param key     is the binary key of the key
+     * @return a negative number, zero or a positive number as the key at the
+     *         index is less than, equal to or greater than the key
+     */
+    public int compareKey(int index, long highKey, long key) {
+	if (highKeys == null) {
+	    return Long.compare(keys[index], key);
+	} else if (highKeys[index] != highKey) {
+	    return Long.compareUnsigned(highKeys[index], highKey);
+	}
+	return Long.compareUnsigned(keys[index], key);
+    }
+
+    /**
+     * Binary search of a key among the keys of the node, which are kept in
+     * increasing order
+     * 
+     * @param key is the binary key to find
+     * @return the index of the key if it is in the node, otherwise (-(insertion
+     *         point) - 1) as Arrays.binarySearch, where the insertion point is
+     *         also the child the key would be under
+     */
+    public int findKey(long key) {
+	int low = 0;
+	int high = currentNumKeys - 1;
+	while (low <= high) {
+	    int middle = (low + high) >>> 1;
+	    long middleKey = keys[middle];
+	    if (middleKey < key) {
+		low = middle + 1;
+	    } else if (middleKey > key) {
+		high = middle - 1;
+	    } else {
+		return middle;
+	    }
+	}
+	return -(low + 1);
+    }
+
+    /**
+     * Binary search of a 128-bit key among the keys of the node, as findKey(long)
+     * 
+     * @param highKey is the high key to find, 0 if the keys are not 128-bit
+     * @param key     is the binary key to find
+     * @return the index of the key if it is in the node, otherwise (-(insertion
+     *         point) - 1)
+     */
+    public int findKey(long highKey, long key) {
+	if (highKeys == null) {
+	    return findKey(key);
+	}
+	int low = 0;
+	int high = currentNumKeys - 1;
+	while (low <= high) {
+	    int middle = (low + high) >>> 1;
+	    int compare = compareKey(middle, highKey, key);
+	    if (compare < 0) {
+		low = middle + 1;
+	    } else if (compare > 0) {
+		high = middle - 1;
+	    } else {
+		return middle;
+	    }
+	}
+	return -(low + 1);
+    }
+
+    /**
+     * Copies the key, frequency and key condition of a tree object of the source
+     * node into the tree object at the index of this node.
+     * 
+     * @param index       is the index in this tree node
+     * @param source      is the node to copy from, can be this node
+     * @param sourceIndex is the index in the source node
+     */
+    public void copyTreeObject(int index, TreeNode source, int sourceIndex) {
+	this.keys[index] = source.keys[sourceIndex];
+	if (highKeys != null) {
+	    this.highKeys[index] = source.highKeys[sourceIndex];
+	}
+	this.frequencies[index] = source.frequencies[sourceIndex];
+	this.keyConditions[index] = source.keyConditions[sourceIndex];
     }
 
     /**
@@ -218,7 +355,17 @@ public class TreeNode {
      * @param frequency is the frequency of the tree object at the index
      */
     public void setTreefrequency(int index, int frequency) {
-	this.treeObjects[index].setFrequency(frequency);
+	this.frequencies[index] = frequency;
+    }
+
+    /**
+     * Adds to the tree object frequency at the index
+     * 
+     * @param index     is the index of the key in the node
+     * @param frequency is added to the frequency
+     */
+    public void addTreefrequency(int index, int frequency) {
+	this.frequencies[index] += frequency;
     }
 
     /**
@@ -228,7 +375,7 @@ public class TreeNode {
      * @return the tree object frequency at the index
      */
     public int getTreefrequency(int index) {
-	return this.treeObjects[index].getFrequency();
+	return this.frequencies[index];
     }
 
     /**
@@ -240,7 +387,7 @@ public class TreeNode {
      *                  tree object at the index
      */
     public void setNodeKeyCondition(int index, int condition) {
-	this.treeObjects[index].setKeyCondition(condition);
+	this.keyConditions[index] = (byte) condition;
     }
 
     /**
@@ -251,14 +398,33 @@ public class TreeNode {
      * @return the current key condition of the tree object in the index location
      */
     public int getNodeKeyCondition(int index) {
-	return this.treeObjects[index].getKeyCondition();
+	return this.keyConditions[index];
+    }
+
+    /**
+     * Returns true if the node was changed since it was last written to the file
+     * 
+     * @return true if the node has to be written back
+     */
+    public boolean isDirty() {
+	return dirty;
+    }
+
+    /**
+     * Sets the dirty flag of the node. The BTree sets it when it changes the node
+     * and clears it when it writes the node to the file.
+     * 
+     * @param dirty is true if the node has to be written back
+     */
+    public void setDirty(boolean dirty) {
+	this.dirty = dirty;
     }
 
     @Override
     public String toString() {
 	String nodeString = "";
 	for (int i = 0; i < currentNumKeys; i++) {
-	    nodeString = nodeString + treeObjects[i].toString();
+	    nodeString = nodeString + keys[i] + ": " + frequencies[i];
 	}
 	return nodeString;
     }
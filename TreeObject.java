@@ -2,12 +2,17 @@
 /**
  * TreeObject creates a TreeObject from the binary key object
  * 
+ * A DNA sequence longer than 31 has a 128-bit key: its last 32 bases are in the
+ * binary key and the bases before them in the high key. Keys are compared as
+ * unsigned 128-bit numbers; the high key of a shorter DNA sequence is 0.
+ * 
  * @author Sajia Zafreen
  *
  */
 public class TreeObject implements Comparable<TreeObject> {
     // treeObject = keys+ frequency
     private long binaryKey; // keys = binary format in long
+    private long highKey; // bases before the last 32 of a longer DNA sequence
     private int frequency;
     private int keyCondition; // condition 0= NIL, 1= OCCUPIED, 2= DELETED
 
@@ -22,6 +27,17 @@ public class TreeObject implements Comparable<TreeObject> {
 	this.keyCondition = 0;
     }
 
+    /**
+     * Constructor of TreeObject for a 128-bit key
+     * 
+     * @param highKey   is the high part of the key, the bases before the last 32
+     * @param binaryKey is the low part of the key, the last 32 bases
+     */
+    public TreeObject(long highKey, long binaryKey) {
+	this(binaryKey);
+	this.highKey = highKey;
+    }
+
     /**
      * Returns the binary key
      * 
@@ -31,6 +47,24 @@ public class TreeObject implements Comparable<TreeObject> {
 	return binaryKey;
     }
 
+    /**
+     * Returns the high key, 0 for a DNA sequence up to 32 long
+     * 
+     * @return the high key
+     */
+    public long getHighKey() {
+	return highKey;
+    }
+
+    /**
+     * Sets the high key
+     * 
+     * @param highKey is the high key to be set
+     */
+    public void setHighKey(long highKey) {
+	this.highKey = highKey;
+    }
+
     /**
      * Set the binary key
      * 
@@ -90,12 +124,9 @@ public class TreeObject implements Comparable<TreeObject> {
 
     @Override
     public int compareTo(TreeObject treeObject) {
-	if (this.binaryKey > treeObject.getBinaryKey()) {
-	    return 1;
-	} else if (this.binaryKey < treeObject.getBinaryKey()) {
-	    return -1;
-	} else {
-	    return 0;
+	if (this.highKey != treeObject.getHighKey()) {
+	    return Long.compareUnsigned(this.highKey, treeObject.getHighKey());
 	}
+	return Long.compareUnsigned(this.binaryKey, treeObject.getBinaryKey());
     }
 }
@@ -0,0 +1,90 @@
+/**
+ * TwoQueuePolicy is the 2Q policy of Johnson and Shasha. A node read for the
+ * first time enters a small FIFO queue (A1in); only a node accessed again after
+ * it left that queue, while its location is still remembered in the ghost queue
+ * A1out, is promoted to the main LRU queue (Am). A scan such as the in order
+ * traversal of the BTree therefore only cycles through A1in and cannot flush the
+ * frequently used upper levels of the tree from Am.
+ * 
+ * @author Sajia Zafreen
+ */
+public class TwoQueuePolicy implements EvictionPolicy {
+    private static final int A1IN = 0;
+    private static final int AM = 1;
+
+    private CacheList a1In = new CacheList(); // FIFO of nodes seen once
+    private CacheList am = new CacheList(); // LRU of nodes seen again
+    private CacheList a1Out = new CacheList(); // ghosts of nodes evicted from A1in
+    private LocationTable ghosts;
+    private int maxIn;
+    private int maxOut;
+
+    /**
+     * Constructor of the TwoQueuePolicy
+     * 
+     * @param size is the size of the Cache
+     */
+    public TwoQueuePolicy(int size) {
+	this.maxIn = Math.max(1, size / 4);
+	this.maxOut = Math.max(1, size / 2);
+	this.ghosts = new LocationTable(maxOut);
+    }
+
+    @Override
+    public void hit(CacheEntry entry) {
+	if (entry.queue == AM) {
+	    am.moveToFront(entry);
+	} // a hit in A1in does not change the FIFO order
+    }
+
+    @Override
+    public void add(CacheEntry entry) {
+	CacheEntry ghost = ghosts.get(entry.getLocation());
+	if (ghost != null) {
+	    ghosts.remove(ghost);
+	    a1Out.unlink(ghost);
+	    entry.queue = AM;
+	    am.linkFirst(entry);
+	} else {
+	    entry.queue = A1IN;
+	    a1In.linkFirst(entry);
+	}
+    }
+
+    @Override
+    public CacheEntry evict(int location) {
+	if (a1In.size() > maxIn || am.size() == 0) {
+	    CacheEntry victim = a1In.removeLast();
+	    CacheEntry ghost = new CacheEntry(victim.getLocation());
+	    a1Out.linkFirst(ghost);
+	    ghosts.put(ghost);
+	    if (a1Out.size() > maxOut) {
+		ghosts.remove(a1Out.removeLast());
+	    }
+	    return victim;
+	}
+	return am.removeLast();
+    }
+
+    @Override
+    public void remove(CacheEntry entry) {
+	if (entry.queue == AM) {
+	    am.unlink(entry);
+	} else {
+	    a1In.unlink(entry);
+	}
+    }
+
+    @Override
+    public void clear() {
+	a1In.clear();
+	am.clear();
+	a1Out.clear();
+	ghosts.clear();
+    }
+
+    @Override
+    public String getName() {
+	return "2Q";
+    }
+}
@@ -0,0 +1,16 @@
+/**
+ * WideKeyConsumer receives the 128-bit keys of DNA sequences longer than 31,
+ * as two primitive longs, from a KmerEncoder.
+ * 
+ * @author Sajia Zafreen
+ */
+public interface WideKeyConsumer {
+
+    /**
+     * Receives a key
+     * 
+     * @param highKey   is the high key, the bases before the last 32
+     * @param binaryKey is the binary key, the last 32 bases
+     */
+    void accept(long highKey, long binaryKey);
+}